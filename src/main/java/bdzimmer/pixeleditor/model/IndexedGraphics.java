@@ -4,9 +4,16 @@ package bdzimmer.pixeleditor.model;
 
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
 import java.awt.image.IndexColorModel;
+import java.util.Arrays;
 
 import javax.swing.JPanel;
 
@@ -16,10 +23,15 @@ import bdzimmer.pixeleditor.controller.TileUtil;
 public class IndexedGraphics extends JPanel {
   private static final long serialVersionUID = 1; // Meaningless junk.
 
-  private final BufferedImage screenBuffer;
-  private final int[] buffer;
+  public static final int NO_TRANSPARENCY = -1;
 
-  private final int scale;
+  private BufferedImage screenBuffer;
+  private final int[] buffer;     // packed RGB
+  private final byte[] indices;   // color indices when using an IndexColorModel
+
+  private final boolean scaleOnPaint;
+  private final int bufferScale;  // scale of the pixels stored in buffer
+  private int scale;
   private final int height;
   private final int width; // size
 
@@ -31,24 +43,41 @@ public class IndexedGraphics extends JPanel {
 
   private int[] palettePacked;
   private Color[] palette;
+  private SharedPalette sharedPalette;  // null when not shared
+  private int clutVersion = -1;         // version of sharedPalette in the CLUT
+
+  private Image[] overlays = new Image[0];
+  private boolean showBuffer = true;
 
   private boolean showGrid = false;
   private int gridWidth  = 0;
   private int gridHeight = 0;
 
+  // union of the regions touched since the last repaintDirty, in unscaled
+  // coordinates; empty when dirtyMaxX <= dirtyMinX
+  private int dirtyMinX = Integer.MAX_VALUE;
+  private int dirtyMinY = Integer.MAX_VALUE;
+  private int dirtyMaxX = Integer.MIN_VALUE;
+  private int dirtyMaxY = Integer.MIN_VALUE;
 
 
   /**
    * Create a new DosGraphics instance.
    *
-   * @param height     vertical dimension
-   * @param width      horizontal dimension
-   * @param scale      pixel scaling
+   * @param height        vertical dimension
+   * @param width         horizontal dimension
+   * @param scale         pixel scaling
+   * @param scaleOnPaint  keep the buffer at 1:1 and scale when painting
+   * @param indexed       store color indices and display them through an
+   *                      IndexColorModel, so that updating the CLUT does
+   *                      not require redrawing
    */
   public IndexedGraphics(
       Color[] palette,
       int bitsPerChannel,
-      int height, int width, int scale) {
+      int height, int width, int scale,
+      boolean scaleOnPaint,
+      boolean indexed) {
 
     // this.bitsPerChannel = bitsPerChannel;
     this.colorFactor = (1 << (8 - bitsPerChannel));
@@ -56,14 +85,31 @@ public class IndexedGraphics extends JPanel {
     this.height = height;
     this.width = width;
     this.scale = scale;
+    this.scaleOnPaint = scaleOnPaint;
+    this.bufferScale = scaleOnPaint ? 1 : scale;
+
+    if (indexed && palette.length > 256) {
+      throw new IllegalArgumentException("indexed graphics support at most 256 colors");
+    }
 
     this.palette = palette;
     this.palettePacked = new int[palette.length];
-    this.updateClut();
 
-    screenBuffer = new BufferedImage(
-        this.width * this.scale, this.height * this.scale, BufferedImage.TYPE_INT_RGB);
-    buffer = ((DataBufferInt) screenBuffer.getRaster().getDataBuffer()).getData();
+    if (indexed) {
+      screenBuffer = new BufferedImage(
+          this.width * this.bufferScale, this.height * this.bufferScale,
+          BufferedImage.TYPE_BYTE_INDEXED, indexColorModel());
+      buffer = null;
+      indices = ((DataBufferByte) screenBuffer.getRaster().getDataBuffer()).getData();
+    } else {
+      screenBuffer = new BufferedImage(
+          this.width * this.bufferScale, this.height * this.bufferScale,
+          BufferedImage.TYPE_INT_RGB);
+      buffer = ((DataBufferInt) screenBuffer.getRaster().getDataBuffer()).getData();
+      indices = null;
+    }
+
+    this.updateClut();
 
     setPreferredSize(new Dimension(this.width * this.scale, this.height * this.scale));
     setIgnoreRepaint(false);
@@ -72,6 +118,47 @@ public class IndexedGraphics extends JPanel {
   }
 
 
+  /**
+   * Create a new IndexedGraphics using a SharedPalette. The CLUT is only
+   * recalculated by updateClut when the palette's version has changed.
+   *
+   * @param palette       shared palette
+   * @param bitsPerChannel bits per channel of palette colors
+   * @param height        height in pixels
+   * @param width         width in pixels
+   * @param scale         pixel scaling
+   * @param scaleOnPaint  keep the buffer at 1:1 and scale when painting
+   * @param indexed       store color indices and use an IndexColorModel
+   */
+  public IndexedGraphics(
+      SharedPalette palette,
+      int bitsPerChannel,
+      int height, int width, int scale,
+      boolean scaleOnPaint,
+      boolean indexed) {
+    this(palette.getColors(), bitsPerChannel, height, width, scale, scaleOnPaint, indexed);
+    this.sharedPalette = palette;
+    this.clutVersion = palette.getVersion();
+  }
+
+
+  public IndexedGraphics(
+      Color[] palette,
+      int bitsPerChannel,
+      int height, int width, int scale,
+      boolean scaleOnPaint) {
+    this(palette, bitsPerChannel, height, width, scale, scaleOnPaint, false);
+  }
+
+
+  public IndexedGraphics(
+      Color[] palette,
+      int bitsPerChannel,
+      int height, int width, int scale) {
+    this(palette, bitsPerChannel, height, width, scale, false, false);
+  }
+
+
   public IndexedGraphics() {
     // VGA mode 13h
     this(240, 320, 2);
@@ -98,18 +185,34 @@ public class IndexedGraphics extends JPanel {
       return;
     }
 
-    int rowLength = width * scale;
-    int upperleft = y * scale * rowLength + x * scale;
+    markDirty(x, y, 1, 1);
+
+    int rowLength = width * bufferScale;
+    int upperleft = y * bufferScale * rowLength + x * bufferScale;
+
+    if (indices != null) {
+      byte curIndex = (byte) colorIndex;
+      for (int i = 0; i < bufferScale; i++) {
+        int curRowOffset = upperleft + rowLength * i;
+        Arrays.fill(indices, curRowOffset, curRowOffset + bufferScale, curIndex);
+      }
+      return;
+    }
+
     int curColor = palettePacked[colorIndex];
 
-    if (this.scale == 2) {
+    if (this.bufferScale == 1) {
+
+      buffer[upperleft] = curColor;
+
+    } else if (this.bufferScale == 2) {
 
       buffer[upperleft] = curColor;
       buffer[upperleft + 1] = curColor;
       buffer[upperleft + rowLength] = curColor;
       buffer[upperleft + rowLength + 1] = curColor;
 
-    } else if (this.scale == 3) {
+    } else if (this.bufferScale == 3) {
 
       buffer[upperleft] = curColor;
       buffer[upperleft + 1] = curColor;
@@ -127,9 +230,9 @@ public class IndexedGraphics extends JPanel {
 
     } else {
 
-      for (int i = 0; i < scale; i++) {
+      for (int i = 0; i < bufferScale; i++) {
         int curRowOffset = rowLength * i;
-        for (int j = 0; j < scale; j++) {
+        for (int j = 0; j < bufferScale; j++) {
           this.buffer[upperleft + curRowOffset + j] = curColor;
         }
       }
@@ -137,6 +240,228 @@ public class IndexedGraphics extends JPanel {
   }
 
 
+  /**
+   * Draw a tile. Clips once for the whole tile, then writes complete
+   * scaled rows rather than going pixel by pixel.
+   *
+   * @param bitmap            tile bitmap
+   * @param x                 horizontal position
+   * @param y                 vertical position
+   * @param palOffset         offset added to each color index
+   * @param transparentIndex  bitmap value to skip, or NO_TRANSPARENCY
+   */
+  public void blitTile(int[][] bitmap, int x, int y, int palOffset, int transparentIndex) {
+
+    // clip the tile to the buffer
+    int startRow = Math.max(0, -y);
+    int endRow   = Math.min(bitmap.length, height - y);
+    int startCol = Math.max(0, -x);
+    int endCol   = Math.min(bitmap[0].length, width - x);
+
+    if (startRow >= endRow || startCol >= endCol) {
+      return;
+    }
+
+    markDirty(x + startCol, y + startRow, endCol - startCol, endRow - startRow);
+
+    int rowLength = width * bufferScale;
+    int spanLength = (endCol - startCol) * bufferScale;
+
+    for (int i = startRow; i < endRow; i++) {
+
+      int[] srcRow = bitmap[i];
+      int rowStart = (y + i) * bufferScale * rowLength + (x + startCol) * bufferScale;
+
+      if (indices != null) {
+
+        int upperleft = rowStart;
+        for (int j = startCol; j < endCol; j++) {
+          int colorIndex = srcRow[j];
+          if (colorIndex != transparentIndex) {
+            byte curIndex = (byte) (colorIndex + palOffset);
+            for (int k = 0; k < bufferScale; k++) {
+              int curRowOffset = upperleft + k * rowLength;
+              Arrays.fill(indices, curRowOffset, curRowOffset + bufferScale, curIndex);
+            }
+          }
+          upperleft += bufferScale;
+        }
+
+      } else if (transparentIndex == NO_TRANSPARENCY) {
+
+        // fill the first scaled row, then copy it down
+        int upperleft = rowStart;
+        for (int j = startCol; j < endCol; j++) {
+          int curColor = palettePacked[srcRow[j] + palOffset];
+          if (bufferScale == 1) {
+            buffer[upperleft] = curColor;
+          } else {
+            Arrays.fill(buffer, upperleft, upperleft + bufferScale, curColor);
+          }
+          upperleft += bufferScale;
+        }
+        for (int k = 1; k < bufferScale; k++) {
+          System.arraycopy(buffer, rowStart, buffer, rowStart + k * rowLength, spanLength);
+        }
+
+      } else {
+
+        int upperleft = rowStart;
+        for (int j = startCol; j < endCol; j++) {
+          int colorIndex = srcRow[j];
+          if (colorIndex != transparentIndex) {
+            int curColor = palettePacked[colorIndex + palOffset];
+            for (int k = 0; k < bufferScale; k++) {
+              int curRowOffset = upperleft + k * rowLength;
+              Arrays.fill(buffer, curRowOffset, curRowOffset + bufferScale, curColor);
+            }
+          }
+          upperleft += bufferScale;
+        }
+
+      }
+    }
+
+  }
+
+  /**
+   * Draw pre-rendered packed RGB pixels, such as tiles from a TileCache.
+   * The pixels must be at the scale of the buffer (see getBufferScale).
+   *
+   * @param pixels            packed RGB pixels
+   * @param x                 horizontal position
+   * @param y                 vertical position
+   * @param tileWidth         unscaled width of the pixels
+   * @param tileHeight        unscaled height of the pixels
+   * @param transparent       skip pixels with zero alpha
+   */
+  public void blitPacked(
+      int[] pixels, int x, int y, int tileWidth, int tileHeight, boolean transparent) {
+
+    if (indices != null) {
+      throw new IllegalStateException("can't draw packed pixels to indexed graphics");
+    }
+
+    // clip to the buffer
+    int startRow = Math.max(0, -y);
+    int endRow   = Math.min(tileHeight, height - y);
+    int startCol = Math.max(0, -x);
+    int endCol   = Math.min(tileWidth, width - x);
+
+    if (startRow >= endRow || startCol >= endCol) {
+      return;
+    }
+
+    markDirty(x + startCol, y + startRow, endCol - startCol, endRow - startRow);
+
+    int rowLength = width * bufferScale;
+    int srcRowLength = tileWidth * bufferScale;
+    int spanLength = (endCol - startCol) * bufferScale;
+
+    for (int i = startRow * bufferScale; i < endRow * bufferScale; i++) {
+
+      int srcStart = i * srcRowLength + startCol * bufferScale;
+      int rowStart = (y * bufferScale + i) * rowLength + (x + startCol) * bufferScale;
+
+      if (transparent) {
+        for (int j = 0; j < spanLength; j++) {
+          int curColor = pixels[srcStart + j];
+          if ((curColor >>> 24) != 0) {
+            buffer[rowStart + j] = curColor;
+          }
+        }
+      } else {
+        System.arraycopy(pixels, srcStart, buffer, rowStart, spanLength);
+      }
+
+    }
+
+  }
+
+
+  /**
+   * Shift the contents of the buffer. The regions exposed by the shift
+   * keep their old contents and must be redrawn by the caller.
+   *
+   * @param dx        horizontal shift in pixels
+   * @param dy        vertical shift in pixels
+   */
+  public void shift(int dx, int dy) {
+    markDirty(0, 0, width, height);
+    shiftPixels(
+        indices != null ? indices : buffer,
+        width * bufferScale, height * bufferScale,
+        dx * bufferScale, dy * bufferScale);
+  }
+
+
+  /**
+   * Shift the contents of a row-major pixel array in place.
+   *
+   * @param pixels    int[] or byte[] of pixels
+   * @param w         width in pixels
+   * @param h         height in pixels
+   * @param dx        horizontal shift in pixels
+   * @param dy        vertical shift in pixels
+   */
+  public static void shiftPixels(Object pixels, int w, int h, int dx, int dy) {
+
+    if (Math.abs(dx) >= w || Math.abs(dy) >= h) {
+      return;
+    }
+
+    int srcCol = Math.max(0, -dx);
+    int dstCol = Math.max(0, dx);
+    int length = w - Math.abs(dx);
+
+    // copy rows in an order that doesn't overwrite rows still to be copied
+    if (dy > 0) {
+      for (int i = h - 1; i >= dy; i--) {
+        System.arraycopy(pixels, (i - dy) * w + srcCol, pixels, i * w + dstCol, length);
+      }
+    } else {
+      for (int i = 0; i < h + dy; i++) {
+        System.arraycopy(pixels, (i - dy) * w + srcCol, pixels, i * w + dstCol, length);
+      }
+    }
+
+  }
+
+
+  /**
+   * Add a region to the dirty rectangle. Use this after drawing directly
+   * on the image returned by getImage.
+   *
+   * @param x         horizontal position
+   * @param y         vertical position
+   * @param w         width
+   * @param h         height
+   */
+  public void markDirty(int x, int y, int w, int h) {
+    dirtyMinX = Math.min(dirtyMinX, Math.max(x, 0));
+    dirtyMinY = Math.min(dirtyMinY, Math.max(y, 0));
+    dirtyMaxX = Math.max(dirtyMaxX, Math.min(x + w, width));
+    dirtyMaxY = Math.max(dirtyMaxY, Math.min(y + h, height));
+  }
+
+
+  /**
+   * Repaint only the region touched since the last call and reset it.
+   */
+  public void repaintDirty() {
+    if (dirtyMaxX > dirtyMinX && dirtyMaxY > dirtyMinY) {
+      repaint(
+          dirtyMinX * scale, dirtyMinY * scale,
+          (dirtyMaxX - dirtyMinX) * scale, (dirtyMaxY - dirtyMinY) * scale);
+    }
+    dirtyMinX = Integer.MAX_VALUE;
+    dirtyMinY = Integer.MAX_VALUE;
+    dirtyMaxX = Integer.MIN_VALUE;
+    dirtyMaxY = Integer.MIN_VALUE;
+  }
+
+
+  // when scaling on paint, this image is at 1:1 scale
   public BufferedImage getImage() {
     return this.screenBuffer;
   }
@@ -145,17 +470,102 @@ public class IndexedGraphics extends JPanel {
     return this.scale;
   }
 
+  public int getBufferScale() {
+    return this.bufferScale;
+  }
+
+  public boolean getScaleOnPaint() {
+    return this.scaleOnPaint;
+  }
+
+  /**
+   * Change the display scale without redrawing. Only available when
+   * scaling on paint.
+   *
+   * @param scale      pixel scaling
+   */
+  public void setScale(int scale) {
+    if (!scaleOnPaint) {
+      throw new IllegalStateException("buffer is prescaled; create a new IndexedGraphics");
+    }
+    this.scale = scale;
+    setPreferredSize(new Dimension(this.width * this.scale, this.height * this.scale));
+    revalidate();
+    repaint();
+  }
+
+  /**
+   * Set an image to draw on top of the scaled buffer, at display resolution.
+   *
+   * @param overlay    image to draw, or null for none
+   */
+  public void setOverlay(Image overlay) {
+    if (overlay == null) {
+      this.overlays = new Image[0];
+    } else {
+      this.overlays = new Image[] {overlay};
+    }
+  }
+
+  /**
+   * Set images to draw in order on top of the buffer. Each image is
+   * stretched to the display size, so it may be at either buffer or
+   * display resolution.
+   *
+   * @param overlays    images to draw
+   */
+  public void setOverlays(Image... overlays) {
+    this.overlays = overlays;
+  }
+
+  /**
+   * Set whether to draw the buffer. When the buffer is hidden, color 0
+   * of the palette is drawn in its place.
+   *
+   * @param showBuffer  true to draw the buffer
+   */
+  public void setShowBuffer(boolean showBuffer) {
+    this.showBuffer = showBuffer;
+  }
+
   /**
    * Recalculate the CLUT from the RGB palette. Requires redrawing of all
-   * DosGraphics instances sharing this palette to take effect.
+   * DosGraphics instances sharing this palette to take effect, unless
+   * the instance is indexed, in which case only a repaint is needed.
+   * When using a SharedPalette, does nothing if the palette has not
+   * been modified since the last update.
    *
    */
   public void updateClut() {
+
+    if (sharedPalette != null) {
+      if (clutVersion == sharedPalette.getVersion()) {
+        return;
+      }
+      clutVersion = sharedPalette.getVersion();
+    }
+
     // this also requires redrawing of all DosGraphics' to take effect
     for (int i = 0; i < palette.length; i++) {
       palettePacked[i] = 255 << 24 | (palette[i].r() * colorFactor) << 16 | (palette[i].g() * colorFactor) << 8 | (palette[i].b() * colorFactor);
     }
 
+    if (indices != null) {
+      // swap in a new color model; the raster is shared
+      screenBuffer = new BufferedImage(indexColorModel(), screenBuffer.getRaster(), false, null);
+    }
+
+  }
+
+
+  // IndexColorModel for the current CLUT
+  private IndexColorModel indexColorModel() {
+    return new IndexColorModel(
+        8, palettePacked.length, palettePacked, 0, false, -1, DataBuffer.TYPE_BYTE);
+  }
+
+  public boolean getIndexed() {
+    return this.indices != null;
   }
 
   public int[] getPalettePacked() {
@@ -167,8 +577,22 @@ public class IndexedGraphics extends JPanel {
   }
 
   public void setPalette(Color[] palette) {
+    if (indices != null && palette.length > 256) {
+      throw new IllegalArgumentException("indexed graphics support at most 256 colors");
+    }
     this.palette = palette;
     this.palettePacked = new int[this.palette.length];
+    this.sharedPalette = null;
+  }
+
+  public void setPalette(SharedPalette palette) {
+    setPalette(palette.getColors());
+    this.sharedPalette = palette;
+    this.clutVersion = -1;
+  }
+
+  public SharedPalette getSharedPalette() {
+    return this.sharedPalette;
   }
 
   public boolean getShowGrid() {
@@ -211,12 +635,56 @@ public class IndexedGraphics extends JPanel {
   public void paintComponent(Graphics graphics) {
     super.paintComponent(graphics); // Draw things in superclass
 
+    // only the part of each image inside the clip is cleared, scaled, and drawn
+    Rectangle clip = graphics.getClipBounds();
+    if (clip == null) {
+      clip = new Rectangle(0, 0, width * scale, height * scale);
+    }
+
     graphics.setColor(java.awt.Color.BLACK);
-    graphics.fillRect(0, 0, width * 2 - 1, height * 2 - 1);
-    graphics.drawImage(screenBuffer, 0, 0, null);
+    graphics.fillRect(clip.x, clip.y, clip.width, clip.height);
+    ((Graphics2D) graphics).setRenderingHint(
+        RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+
+    if (!showBuffer) {
+      graphics.setColor(new java.awt.Color(palettePacked[0]));
+      graphics.fillRect(0, 0, width * scale, height * scale);
+    } else {
+      drawClipped(graphics, screenBuffer, clip);
+    }
+    for (Image overlay : overlays) {
+      drawClipped(graphics, overlay, clip);
+    }
     if (showGrid) drawGrid(graphics);
   }
 
+
+  // draw the part of an image that covers the clip, stretched to the display size
+  private void drawClipped(Graphics graphics, Image image, Rectangle clip) {
+
+    int displayWidth = width * scale;
+    int displayHeight = height * scale;
+
+    // display pixels per image pixel
+    int ratio = Math.max(1, displayWidth / image.getWidth(null));
+
+    int sx1 = Math.max(0, clip.x / ratio);
+    int sy1 = Math.max(0, clip.y / ratio);
+    int sx2 = Math.min(displayWidth / ratio, (clip.x + clip.width + ratio - 1) / ratio);
+    int sy2 = Math.min(displayHeight / ratio, (clip.y + clip.height + ratio - 1) / ratio);
+
+    if (sx1 >= sx2 || sy1 >= sy2) {
+      return;
+    }
+
+    graphics.drawImage(
+        image,
+        sx1 * ratio, sy1 * ratio, sx2 * ratio, sy2 * ratio,
+        sx1, sy1, sx2, sy2,
+        null);
+
+  }
+
   // helper function for drawing a grid
   private void drawGrid(Graphics g) {
     int maxIdx = palette.length - 1;
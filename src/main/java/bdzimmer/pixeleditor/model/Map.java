@@ -3,22 +3,26 @@
 package bdzimmer.pixeleditor.model;
 
 import java.awt.image.BufferedImage;
-import java.io.EOFException;
+import java.awt.image.DataBufferByte;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.awt.image.WritableRaster;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 public class Map {
 
   public String mapDesc = "";
 
   public String tileFileName = "";
-  public int[][] paraMap = new int[24][40];
-  public int[][] map = new int[128][128];
-  public int[][] overMap = new int[128][128];
+  public final MapLayer paraMap = new MapLayer();
+  public final MapLayer map = new MapLayer();
+  public final MapLayer overMap = new MapLayer();
 
   public boolean hasParallax;
 
@@ -39,93 +43,79 @@ public class Map {
    * @param mapFile File to load.
    */
   public Map(File mapFile) {
-    // erase current map
-    for (int i = 0; i < 128; i++) {
-      for (int j = 0; j < 128; j++) {
-        this.map[i][j] = 0;
-        this.overMap[i][j] = 0;
-      }
-    }
-    for (int i = 0; i < 24; i++) {
-      for (int j = 0; j < 40; j++) {
-        this.paraMap[i][j] = 0;
-      }
-    }
 
-    // open file for input
+    // read the whole file at once and decode from memory
     try {
-      QbInputStream mapIn = new QbInputStream(new FileInputStream(mapFile));
-      // read description
-      int[] mapDescB = new int[30];
-      char[] mapDesc = new char[30];
-      for (int i = 0; i < 30; i++) {
-        mapDescB[i] = mapIn.readQbUnsignedByte();
-        mapDesc[i] = (char) mapDescB[i];
-        // System.out.println(mapDesc[i]);
-      }
-      this.mapDesc = new String(mapDesc);
-      // read tileset
-      int[] tileFileNameB = new int[8];
-      char[] tileFileName = new char[8];
-      for (int i = 0; i < 8; i++) {
-        tileFileNameB[i] = mapIn.readQbUnsignedByte();
-        tileFileName[i] = (char) tileFileNameB[i];
-      }
-      this.tileFileName = new String(tileFileName).trim();
+      ByteBuffer mapIn = ByteBuffer.wrap(Files.readAllBytes(mapFile.toPath()));
+      mapIn.order(ByteOrder.LITTLE_ENDIAN);
+      load(mapIn);
+    } catch (IOException e) {
+      System.err.println(e); // print exception if the file doesn't exist.
+    } catch (BufferUnderflowException e) {
+      System.err.println("unexpected end of map file " + mapFile);
+    }
 
-      this.mud = mapIn.readQbUnsignedShortLow();
-      this.mlr = mapIn.readQbUnsignedShortLow();
+  }
 
-      // map data
-      for (int i = 0; i <= mud; i++) {
-        for (int j = 0; j <= mlr; j++) {
-          this.map[i][j] = mapIn.readQbUnsignedShortLow();
-        }
-      }
-      for (int i = 0; i <= mud; i++) {
-        for (int j = 0; j <= mlr; j++) {
-          this.overMap[i][j] = mapIn.readQbUnsignedShortLow();
-        }
-      }
 
-      // System.out.println("Loaded normal and overlay layers.");
+  // decode a map file from a little-endian buffer
+  private void load(ByteBuffer mapIn) {
 
-      try {
-        this.pmud = mapIn.readByte();
+    // read description
+    byte[] mapDescB = new byte[30];
+    mapIn.get(mapDescB);
+    this.mapDesc = new String(mapDescB, StandardCharsets.ISO_8859_1);
+    // read tileset
+    byte[] tileFileNameB = new byte[8];
+    mapIn.get(tileFileNameB);
+    this.tileFileName = new String(tileFileNameB, StandardCharsets.ISO_8859_1).trim();
 
-        if (this.pmud > -1) { // load parallax layer
-          this.pmud = mapIn.readQbUnsignedShortLow();
-          this.pmlr = mapIn.readQbUnsignedShortLow();
-          for (int i = 0; i <= pmud; i++) {
-            for (int j = 0; j <= pmlr; j++) {
-              this.paraMap[i][j] = mapIn.readQbUnsignedShortLow();
-            }
-          }
-          this.hasParallax = true;
+    this.mud = mapIn.getShort() & 0xFFFF;
+    this.mlr = mapIn.getShort() & 0xFFFF;
 
-          // System.out.println("Loaded parallax layer.");
-        }
+    // map data
+    readLayer(mapIn, this.map, mud, mlr);
+    readLayer(mapIn, this.overMap, mud, mlr);
 
-      } catch (EOFException e) {
-        this.hasParallax = false;
+    // System.out.println("Loaded normal and overlay layers.");
 
-        this.pmud = 0;
-        // System.out.println("No parallax layer.");
-      }
+    try {
 
-      mapIn.close();
+      this.pmud = mapIn.get();
 
-    } catch (FileNotFoundException e) {
-      System.err.println(e); // print exception if the file doesn't exist.
-      return;
-    } catch (IOException e) {
-      System.err.println(e);
-      return;
+      if (this.pmud > -1) { // load parallax layer
+        this.pmud = mapIn.getShort() & 0xFFFF;
+        this.pmlr = mapIn.getShort() & 0xFFFF;
+        readLayer(mapIn, this.paraMap, pmud, pmlr);
+        this.hasParallax = true;
+
+        // System.out.println("Loaded parallax layer.");
+      }
+
+    } catch (BufferUnderflowException e) {
+      this.hasParallax = false;
+      this.pmud = 0;
+      // System.out.println("No parallax layer.");
     }
 
   }
 
 
+  // read a layer of (maxRow + 1) x (maxCol + 1) unsigned shorts
+  private static void readLayer(ByteBuffer mapIn, MapLayer layer, int maxRow, int maxCol) {
+    ShortBuffer cells = mapIn.asShortBuffer();
+    int rowLength = maxCol + 1;
+    short[] row = new short[rowLength];
+    for (int i = 0; i <= maxRow; i++) {
+      cells.get(row);
+      for (int j = 0; j < rowLength; j++) {
+        layer.set(i, j, row[j] & 0xFFFF);
+      }
+    }
+    mapIn.position(mapIn.position() + cells.position() * 2);
+  }
+
+
   /**
    * Save the map to a file.
    *
@@ -133,8 +123,20 @@ public class Map {
    */
   public void save(File mapFile) {
 
+    // Determine size of map to save.
+    this.mud = Math.max(0, Math.max(this.map.getMaxRow(), this.overMap.getMaxRow()));
+    this.mlr = Math.max(0, Math.max(this.map.getMaxCol(), this.overMap.getMaxCol()));
+    if (this.hasParallax) {
+      this.pmud = Math.max(0, this.paraMap.getMaxRow());
+      this.pmlr = Math.max(0, this.paraMap.getMaxCol());
+    }
+
     // open file for input
     try {
+      checkExtent(mud, mlr);
+      if (this.hasParallax) {
+        checkExtent(pmud, pmlr);
+      }
       QbOutputStream mapOut = new QbOutputStream(new FileOutputStream(mapFile));
       // System.out.println("Opened output stream.");
       // read description
@@ -146,8 +148,8 @@ public class Map {
         } else {
           mapDescB[i] = (int) ' ';
         }
-        mapOut.writeQbUnsignedByte(mapDescB[i]);
       }
+      mapOut.writeQbUnsignedBytes(mapDescB, 0, 30);
       // write tileset name
       int[] tileFileNameB = new int[8];
       char[] tileFileName = this.tileFileName.toCharArray();
@@ -157,73 +159,28 @@ public class Map {
         } else {
           tileFileNameB[i] = (int) ' ';
         }
-        mapOut.writeQbUnsignedByte(tileFileNameB[i]);
-
-      }
-
-      // Determine size of map to save.
-      this.mud = 0;
-      this.mlr = 0;
-      for (int i = 0; i < 128; i++) {
-        for (int j = 0; j < 128; j++) {
-          if (this.map[i][j] > 0) {
-            if (i > this.mud) {
-              mud = i;
-            }
-            if (j > this.mlr) {
-              mlr = j;
-            }
-          }
-        }
       }
+      mapOut.writeQbUnsignedBytes(tileFileNameB, 0, 8);
 
       System.out.println("Map size: " + mud + " " + mlr);
 
-      mapOut.writeQbUnsignedShortLow(this.mud);
-      mapOut.writeQbUnsignedShortLow(this.mlr);
+      mapOut.writeQbUnsignedShort(this.mud);
+      mapOut.writeQbUnsignedShort(this.mlr);
 
       // map data
-      for (int i = 0; i <= mud; i++) {
-        for (int j = 0; j <= mlr; j++) {
-          mapOut.writeQbUnsignedShortLow(this.map[i][j]);
-        }
-      }
-      for (int i = 0; i <= mud; i++) {
-        for (int j = 0; j <= mlr; j++) {
-          mapOut.writeQbUnsignedShortLow(this.overMap[i][j]);
-        }
-      }
+      writeLayer(mapOut, this.map, mud, mlr);
+      writeLayer(mapOut, this.overMap, mud, mlr);
 
       if (this.hasParallax) {
         // save the parallax map...
 
-        // Determine size of map to save.
-        this.pmud = 0;
-        this.pmlr = 0;
-        for (int i = 0; i < 24; i++) {
-          for (int j = 0; j < 40; j++) {
-            if (this.paraMap[i][j] > 0) {
-              if (i > this.pmud) {
-                pmud = i;
-              }
-              if (j > this.pmlr) {
-                pmlr = j;
-              }
-            }
-          }
-        }
-
         System.out.println("Parallax map size: " + pmud + " " + pmlr);
 
-        mapOut.writeQbUnsignedShortLow(this.pmud);
-        mapOut.writeQbUnsignedShortLow(this.pmlr);
+        mapOut.writeQbUnsignedShort(this.pmud);
+        mapOut.writeQbUnsignedShort(this.pmlr);
 
         // map data
-        for (int i = 0; i <= pmud; i++) {
-          for (int j = 0; j <= pmlr; j++) {
-            mapOut.writeQbUnsignedShortLow(this.paraMap[i][j]);
-          }
-        }
+        writeLayer(mapOut, this.paraMap, pmud, pmlr);
 
       }
 
@@ -238,6 +195,27 @@ public class Map {
   }
 
 
+  // sizes are stored as unsigned shorts
+  private static void checkExtent(int maxRow, int maxCol) throws IOException {
+    if (maxRow > 0xFFFF || maxCol > 0xFFFF) {
+      throw new IOException("map too large to save: " + maxRow + " " + maxCol);
+    }
+  }
+
+
+  // write a layer of (maxRow + 1) x (maxCol + 1) unsigned shorts
+  private static void writeLayer(
+      QbOutputStream mapOut, MapLayer layer, int maxRow, int maxCol) throws IOException {
+    int[] row = new int[maxCol + 1];
+    for (int i = 0; i <= maxRow; i++) {
+      for (int j = 0; j <= maxCol; j++) {
+        row[j] = layer.get(i, j);
+      }
+      mapOut.writeQbUnsignedShorts(row, 0, row.length);
+    }
+  }
+
+
   /**
    * Get an image of the map.
    *
@@ -252,35 +230,38 @@ public class Map {
 
   public BufferedImage image(Tile[] tiles, Palette palette) {
 
+    // draw straight from the bitmaps of the tiles on the map, rather than
+    // decoding and packing the whole tileset first
     int height = tiles[0].bitmap().length;
     int width = tiles[0].bitmap()[0].length;
+    int scanline = (mlr + 1) * width;
 
     BufferedImage mapImage = Tileset.indexedImage(
         (mlr + 1) * width,
         (mud + 1) * height,
         palette, new Color(50, 0, 50));
 
-    WritableRaster wr = mapImage.getRaster();
+    byte[] pixels = ((DataBufferByte) mapImage.getRaster().getDataBuffer()).getData();
 
     for (int i = 0; i <= mud; i++) {
       for (int j = 0; j <= mlr; j++) {
 
-        for (int k = 0; k < height; k++) {
-          wr.setPixels(
-              j * width, i * height + k,
-              width, 1,
-              tiles[this.map[i][j]].bitmap()[k]);
-        }
+        int[][] back = tiles[tileIndex(this.map.get(i, j), tiles)].bitmap();
+        int overTile = tileIndex(this.overMap.get(i, j), tiles);
+        int[][] over = overTile > 0 ? tiles[overTile].bitmap() : null;
+        int dstStart = i * height * scanline + j * width;
 
-        if (this.overMap[i][j] > 0) {
-          for (int k = 0; k < height; k++) {
+        for (int k = 0; k < height; k++) {
+          int dstRow = dstStart + k * scanline;
+          int[] backRow = back[k];
+          for (int l = 0; l < width; l++) {
+            pixels[dstRow + l] = (byte)backRow[l];
+          }
+          if (over != null) {
+            int[] overRow = over[k];
             for (int l = 0; l < width; l++) {
-              int curColor = tiles[this.overMap[i][j]].bitmap()[k][l];
-              if (curColor != 255) {
-                wr.setPixels(
-                    j * width + l, i * height + k,
-                    1, 1,
-                    new int[]{curColor});
+              if (overRow[l] != MapRenderer.TRANSPARENT) {
+                pixels[dstRow + l] = (byte)overRow[l];
               }
             }
           }
@@ -294,6 +275,35 @@ public class Map {
   }
 
 
+  // cells past the end of the tiles are drawn as tile 0, as in MapRenderer
+  private static int tileIndex(int tile, Tile[] tiles) {
+    return tile < tiles.length ? tile : 0;
+  }
+
+
+  /**
+   * Get an image of the map from packed tiles.
+   *
+   * @param tiles         packed tiles to use
+   * @param palette       palette to use
+   * @return  image representation of the map
+   */
+  public BufferedImage image(PackedTiles tiles, Palette palette) {
+    return image(tiles, palette, false);
+  }
+
+
+  /**
+   * Get an image of the map from packed tiles.
+   *
+   * @param tiles         packed tiles to use
+   * @param palette       palette to use
+   * @param parallel      render bands of rows in parallel
+   * @return  image representation of the map
+   */
+  public BufferedImage image(PackedTiles tiles, Palette palette, boolean parallel) {
+    return new MapRenderer(tiles).image(this, palette, parallel);
+  }
 
 
   /**
@@ -303,13 +313,8 @@ public class Map {
   public void erase() {
     mapDesc = "";
     tileFileName = "";
-    for (int i = 0; i < 128; i++) {
-      for (int j = 0; j < 128; j++) {
-        map[i][j] = 0;
-        overMap[i][j] = 0;
-      }
-
-    }
+    map.clear();
+    overMap.clear();
 
   }
 
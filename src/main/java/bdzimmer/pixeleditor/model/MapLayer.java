@@ -0,0 +1,161 @@
+// Copyright (c) 2016 Ben Zimmer. All rights reserved.
+
+// A layer of tile indices of unbounded size, stored in fixed-size chunks
+// that are allocated on the first write. Empty regions cost nothing.
+
+package bdzimmer.pixeleditor.model;
+
+import java.util.Arrays;
+
+
+public class MapLayer {
+
+  public static final int CHUNK_BITS = 5;
+  public static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  // chunks[chunkRow][chunkCol], null where nothing has been written
+  private short[][][] chunks = new short[0][][];
+
+
+  public MapLayer() {
+    // empty layer
+  }
+
+
+  /**
+   * Get the tile index at a position. Positions that have never been
+   * written, including negative positions, are 0.
+   *
+   * @param row     row in tiles
+   * @param col     column in tiles
+   * @return  tile index
+   */
+  public int get(int row, int col) {
+
+    if (row < 0 || col < 0) {
+      return 0;
+    }
+
+    int chunkRow = row >> CHUNK_BITS;
+    int chunkCol = col >> CHUNK_BITS;
+
+    if (chunkRow >= chunks.length || chunkCol >= chunks[chunkRow].length) {
+      return 0;
+    }
+
+    short[] chunk = chunks[chunkRow][chunkCol];
+    if (chunk == null) {
+      return 0;
+    }
+
+    return chunk[((row & CHUNK_MASK) << CHUNK_BITS) | (col & CHUNK_MASK)] & 0xFFFF;
+
+  }
+
+
+  /**
+   * Set the tile index at a position.
+   *
+   * @param row     row in tiles
+   * @param col     column in tiles
+   * @param value   tile index, 0 - 65535
+   */
+  public void set(int row, int col, int value) {
+
+    if (row < 0 || col < 0) {
+      throw new IllegalArgumentException("negative map position " + row + ", " + col);
+    }
+
+    int chunkRow = row >> CHUNK_BITS;
+    int chunkCol = col >> CHUNK_BITS;
+
+    short[] chunk = null;
+    if (chunkRow < chunks.length && chunkCol < chunks[chunkRow].length) {
+      chunk = chunks[chunkRow][chunkCol];
+    }
+
+    if (chunk == null) {
+      if (value == 0) {
+        // writing zero to an empty region is a no-op
+        return;
+      }
+      chunk = new short[CHUNK_SIZE * CHUNK_SIZE];
+      allocate(chunkRow, chunkCol, chunk);
+    }
+
+    chunk[((row & CHUNK_MASK) << CHUNK_BITS) | (col & CHUNK_MASK)] = (short) value;
+
+  }
+
+
+  /**
+   * Get the largest row containing a nonzero tile index.
+   *
+   * @return  row, or -1 if the layer is empty
+   */
+  public int getMaxRow() {
+    int maxRow = -1;
+    for (int chunkRow = 0; chunkRow < chunks.length; chunkRow++) {
+      for (int chunkCol = 0; chunkCol < chunks[chunkRow].length; chunkCol++) {
+        short[] chunk = chunks[chunkRow][chunkCol];
+        if (chunk != null) {
+          for (int k = 0; k < chunk.length; k++) {
+            if (chunk[k] != 0) {
+              maxRow = Math.max(maxRow, (chunkRow << CHUNK_BITS) + (k >> CHUNK_BITS));
+            }
+          }
+        }
+      }
+    }
+    return maxRow;
+  }
+
+
+  /**
+   * Get the largest column containing a nonzero tile index.
+   *
+   * @return  column, or -1 if the layer is empty
+   */
+  public int getMaxCol() {
+    int maxCol = -1;
+    for (int chunkRow = 0; chunkRow < chunks.length; chunkRow++) {
+      for (int chunkCol = 0; chunkCol < chunks[chunkRow].length; chunkCol++) {
+        short[] chunk = chunks[chunkRow][chunkCol];
+        if (chunk != null) {
+          for (int k = 0; k < chunk.length; k++) {
+            if (chunk[k] != 0) {
+              maxCol = Math.max(maxCol, (chunkCol << CHUNK_BITS) + (k & CHUNK_MASK));
+            }
+          }
+        }
+      }
+    }
+    return maxCol;
+  }
+
+
+  /**
+   * Remove all tiles from the layer.
+   */
+  public void clear() {
+    chunks = new short[0][][];
+  }
+
+
+  // store a chunk, growing the chunk grid as needed
+  private void allocate(int chunkRow, int chunkCol, short[] chunk) {
+    if (chunkRow >= chunks.length) {
+      short[][][] grown = Arrays.copyOf(chunks, chunkRow + 1);
+      for (int i = chunks.length; i < grown.length; i++) {
+        grown[i] = new short[0][];
+      }
+      chunks = grown;
+    }
+    if (chunkCol >= chunks[chunkRow].length) {
+      chunks[chunkRow] = Arrays.copyOf(chunks[chunkRow], chunkCol + 1);
+    }
+    chunks[chunkRow][chunkCol] = chunk;
+  }
+
+}
@@ -0,0 +1,183 @@
+// Copyright (c) 2016 Ben Zimmer. All rights reserved.
+
+// Renders maps to indexed images by copying rows of packed tiles straight
+// into the image's pixel array. Overlay tiles are copied as precomputed
+// spans of opaque pixels.
+
+package bdzimmer.pixeleditor.model;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+public class MapRenderer {
+
+  public static final int TRANSPARENT = 255;
+
+  // map rows rendered by a single task when rendering in parallel
+  private static final int BAND_ROWS = 8;
+
+  private final PackedTiles tiles;
+
+  // per tile, per row: start and end of each opaque span
+  private final int[][][] spans;
+
+
+  /**
+   * Create a new MapRenderer.
+   *
+   * @param tiles     packed tiles to render maps with
+   */
+  public MapRenderer(PackedTiles tiles) {
+    this.tiles = tiles;
+    this.spans = new int[tiles.getCount()][][];
+  }
+
+
+  /**
+   * Get an image of a map.
+   *
+   * @param map         map to render
+   * @param palette     palette to use
+   * @param parallel    render bands of map rows in parallel
+   * @return  image representation of the map
+   */
+  public BufferedImage image(Map map, Palette palette, boolean parallel) {
+
+    BufferedImage mapImage = Tileset.indexedImage(
+        (map.mlr + 1) * tiles.getWidth(),
+        (map.mud + 1) * tiles.getHeight(),
+        palette, new Color(50, 0, 50));
+
+    byte[] pixels = ((DataBufferByte) mapImage.getRaster().getDataBuffer()).getData();
+
+    // calculate spans up front so that tasks only read them
+    for (int i = 0; i <= map.mud; i++) {
+      for (int j = 0; j <= map.mlr; j++) {
+        int overTile = tileIndex(map.overMap.get(i, j));
+        if (overTile > 0 && spans[overTile] == null) {
+          spans[overTile] = findSpans(overTile);
+        }
+      }
+    }
+
+    if (parallel) {
+      ForkJoinPool.commonPool().invoke(new RenderBand(map, pixels, 0, map.mud + 1));
+    } else {
+      render(map, pixels, 0, map.mud + 1);
+    }
+
+    return mapImage;
+
+  }
+
+
+  // render map rows [rowStart, rowEnd) into an image's pixels
+  private void render(Map map, byte[] pixels, int rowStart, int rowEnd) {
+
+    byte[] data = tiles.getData();
+    int width = tiles.getWidth();
+    int height = tiles.getHeight();
+    int scanline = (map.mlr + 1) * width;
+
+    for (int i = rowStart; i < rowEnd; i++) {
+      for (int j = 0; j <= map.mlr; j++) {
+
+        int backStart = tiles.getOffset(tileIndex(map.map.get(i, j)));
+        int overTile = tileIndex(map.overMap.get(i, j));
+        int overStart = tiles.getOffset(overTile);
+        int dstStart = i * height * scanline + j * width;
+
+        for (int k = 0; k < height; k++) {
+          int dstRow = dstStart + k * scanline;
+          System.arraycopy(data, backStart + k * width, pixels, dstRow, width);
+          if (overTile > 0) {
+            int[] rowSpans = spans[overTile][k];
+            for (int s = 0; s < rowSpans.length; s += 2) {
+              System.arraycopy(
+                  data, overStart + k * width + rowSpans[s],
+                  pixels, dstRow + rowSpans[s],
+                  rowSpans[s + 1] - rowSpans[s]);
+            }
+          }
+        }
+
+      }
+    }
+
+  }
+
+
+  // cells may hold any 16-bit value; those past the end of the tiles
+  // are drawn as tile 0
+  private int tileIndex(int tile) {
+    return tile < tiles.getCount() ? tile : 0;
+  }
+
+
+  // find the spans of pixels in each row of a tile that are not transparent
+  private int[][] findSpans(int tile) {
+
+    int width = tiles.getWidth();
+    int height = tiles.getHeight();
+    int[][] result = new int[height][];
+    int[] found = new int[width + 1];
+
+    for (int k = 0; k < height; k++) {
+      int count = 0;
+      int x = 0;
+      while (x < width) {
+        while (x < width && tiles.get(tile, x, k) == TRANSPARENT) {
+          x++;
+        }
+        if (x < width) {
+          found[count++] = x;
+          while (x < width && tiles.get(tile, x, k) != TRANSPARENT) {
+            x++;
+          }
+          found[count++] = x;
+        }
+      }
+      result[k] = new int[count];
+      System.arraycopy(found, 0, result[k], 0, count);
+    }
+
+    return result;
+
+  }
+
+
+  // renders a band of map rows, splitting it while it is large
+  private class RenderBand extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map map;
+    private final byte[] pixels;
+    private final int rowStart;
+    private final int rowEnd;
+
+    RenderBand(Map map, byte[] pixels, int rowStart, int rowEnd) {
+      this.map = map;
+      this.pixels = pixels;
+      this.rowStart = rowStart;
+      this.rowEnd = rowEnd;
+    }
+
+    @Override
+    protected void compute() {
+      if (rowEnd - rowStart <= BAND_ROWS) {
+        render(map, pixels, rowStart, rowEnd);
+      } else {
+        int rowMid = (rowStart + rowEnd) / 2;
+        invokeAll(
+            new RenderBand(map, pixels, rowStart, rowMid),
+            new RenderBand(map, pixels, rowMid, rowEnd));
+      }
+    }
+
+  }
+
+}
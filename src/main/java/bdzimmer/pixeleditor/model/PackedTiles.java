@@ -0,0 +1,230 @@
+// Copyright (c) 2016 Ben Zimmer. All rights reserved.
+
+// Tile bitmaps stored contiguously as one byte per pixel, one tile after
+// another. This is the layout of the tile section of the old tileset format,
+// so a store can wrap a file's contents without copying.
+
+package bdzimmer.pixeleditor.model;
+
+
+public class PackedTiles {
+
+  private final byte[] data;
+  private final int offset;
+  private final int count;
+  private final int width;
+  private final int height;
+  private final int stride;
+
+
+  /**
+   * Create a new zeroed PackedTiles.
+   *
+   * @param count     number of tiles
+   * @param width     tile width in pixels
+   * @param height    tile height in pixels
+   */
+  public PackedTiles(int count, int width, int height) {
+    this(new byte[count * width * height], 0, count, width, height);
+  }
+
+
+  /**
+   * Create a new PackedTiles that wraps existing data.
+   *
+   * @param data      array containing the tiles
+   * @param offset    offset of the first tile in data
+   * @param count     number of tiles
+   * @param width     tile width in pixels
+   * @param height    tile height in pixels
+   */
+  public PackedTiles(byte[] data, int offset, int count, int width, int height) {
+    if (offset < 0 || offset + count * width * height > data.length) {
+      throw new IllegalArgumentException("data too short for " + count + " tiles");
+    }
+    this.data = data;
+    this.offset = offset;
+    this.count = count;
+    this.width = width;
+    this.height = height;
+    this.stride = width * height;
+  }
+
+
+  /**
+   * Create a new PackedTiles from an array of tiles.
+   *
+   * @param tiles     tiles to pack; see fits
+   * @return  a new PackedTiles
+   */
+  public static PackedTiles fromTiles(Tile[] tiles) {
+    int[][] first = tiles[0].bitmap();
+    PackedTiles result = new PackedTiles(tiles.length, first[0].length, first.length);
+    for (int i = 0; i < tiles.length; i++) {
+      result.store(i, tiles[i].bitmap());
+    }
+    return result;
+  }
+
+
+  /**
+   * Check whether every pixel of an array of tiles can be stored.
+   *
+   * @param tiles     tiles to check
+   * @return  true if every value is in 0 - 255
+   */
+  public static boolean fits(Tile[] tiles) {
+    for (Tile tile : tiles) {
+      for (int[] row : tile.bitmap()) {
+        for (int value : row) {
+          if ((value & ~0xFF) != 0) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+
+  public int get(int tile, int x, int y) {
+    return data[offset + tile * stride + y * width + x] & 0xFF;
+  }
+
+
+  public void set(int tile, int x, int y, int value) {
+    checkValue(value);
+    data[offset + tile * stride + y * width + x] = (byte) value;
+  }
+
+
+  /**
+   * Copy a row of a tile into an int array.
+   *
+   * @param tile      tile index
+   * @param y         row
+   * @param dst       destination array
+   * @param dstOff    offset in destination array
+   */
+  public void getRow(int tile, int y, int[] dst, int dstOff) {
+    int start = offset + tile * stride + y * width;
+    for (int x = 0; x < width; x++) {
+      dst[dstOff + x] = data[start + x] & 0xFF;
+    }
+  }
+
+
+  /**
+   * Get a tile as a newly allocated bitmap.
+   *
+   * @param tile      tile index
+   * @return  bitmap, height x width
+   */
+  public int[][] bitmap(int tile) {
+    int[][] result = new int[height][width];
+    for (int y = 0; y < height; y++) {
+      getRow(tile, y, result[y], 0);
+    }
+    return result;
+  }
+
+
+  /**
+   * Store a bitmap as a tile.
+   *
+   * @param tile      tile index
+   * @param bitmap    bitmap, height x width, of values in 0 - 255
+   */
+  public void store(int tile, int[][] bitmap) {
+    int start = offset + tile * stride;
+    for (int y = 0; y < height; y++) {
+      int[] row = bitmap[y];
+      for (int x = 0; x < width; x++) {
+        checkValue(row[x]);
+        data[start + y * width + x] = (byte) row[x];
+      }
+    }
+  }
+
+
+  /**
+   * Copy one tile over another.
+   *
+   * @param src       source tile index
+   * @param dst       destination tile index
+   */
+  public void copy(int src, int dst) {
+    System.arraycopy(data, offset + src * stride, data, offset + dst * stride, stride);
+  }
+
+
+  /**
+   * Flip a tile horizontally in place.
+   *
+   * @param tile      tile index
+   */
+  public void flipX(int tile) {
+    int start = offset + tile * stride;
+    for (int y = 0; y < height; y++) {
+      int left = start + y * width;
+      int right = left + width - 1;
+      while (left < right) {
+        byte temp = data[left];
+        data[left++] = data[right];
+        data[right--] = temp;
+      }
+    }
+  }
+
+
+  /**
+   * Flip a tile vertically in place.
+   *
+   * @param tile      tile index
+   */
+  public void flipY(int tile) {
+    int start = offset + tile * stride;
+    byte[] temp = new byte[width];
+    for (int y = 0; y < height / 2; y++) {
+      int top = start + y * width;
+      int bottom = start + (height - 1 - y) * width;
+      System.arraycopy(data, top, temp, 0, width);
+      System.arraycopy(data, bottom, data, top, width);
+      System.arraycopy(temp, 0, data, bottom, width);
+    }
+  }
+
+
+  // pixels are stored in a byte each
+  private static void checkValue(int value) {
+    if ((value & ~0xFF) != 0) {
+      throw new IllegalArgumentException("pixel value out of range: " + value);
+    }
+  }
+
+
+  public byte[] getData() {
+    return data;
+  }
+
+  public int getOffset(int tile) {
+    return offset + tile * stride;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getStride() {
+    return stride;
+  }
+
+}
@@ -2,14 +2,18 @@
 
 package bdzimmer.pixeleditor.model;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
 public class QbInputStream extends DataInputStream {
 
+  // scratch space for bulk reads
+  private byte[] bytes = new byte[0];
+
   public QbInputStream(InputStream is) {
-    super(is);
+    super(new BufferedInputStream(is));
   }
   
   
@@ -28,5 +32,35 @@ public class QbInputStream extends DataInputStream {
     readByte();
     return result;
   }
+  
+  /**
+   * Read len unsigned bytes into an int array.
+   */
+  public void readQbUnsignedBytes(int[] dst, int off, int len) throws IOException {
+    final byte[] src = scratch(len);
+    readFully(src, 0, len);
+    for (int i = 0; i < len; i++) {
+      dst[off + i] = 0x000000FF & (int)src[i];
+    }
+  }
+  
+  /**
+   * Read len unsigned shorts into an int array, keeping the low bytes.
+   */
+  public void readQbShortLows(int[] dst, int off, int len) throws IOException {
+    final byte[] src = scratch(len * 2);
+    readFully(src, 0, len * 2);
+    for (int i = 0; i < len; i++) {
+      dst[off + i] = 0x000000FF & (int)src[i * 2];
+    }
+  }
+  
+  
+  private byte[] scratch(int len) {
+    if (bytes.length < len) {
+      bytes = new byte[len];
+    }
+    return bytes;
+  }
 
 }
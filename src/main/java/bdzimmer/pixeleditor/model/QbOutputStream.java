@@ -2,14 +2,18 @@
 
 package bdzimmer.pixeleditor.model;
 
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
 public class QbOutputStream extends DataOutputStream {
 
+  // scratch space for bulk writes
+  private byte[] bytes = new byte[0];
+
   public QbOutputStream(OutputStream os) {
-    super(os);
+    super(new BufferedOutputStream(os));
   }
   
   // write an int as an unsigned byte
@@ -23,4 +27,47 @@ public class QbOutputStream extends DataOutputStream {
     writeByte(0);
   }
   
+  // write an int as a little-endian unsigned short
+  public void writeQbUnsignedShort(int xb) throws IOException {
+    writeByte(xb & 0xFF);
+    writeByte((xb >> 8) & 0xFF);
+  }
+  
+  // write len ints as unsigned bytes
+  public void writeQbUnsignedBytes(int[] src, int off, int len) throws IOException {
+    final byte[] dst = scratch(len);
+    for (int i = 0; i < len; i++) {
+      dst[i] = (byte)(src[off + i] & 0xFF);
+    }
+    write(dst, 0, len);
+  }
+  
+  // write len ints as unsigned shorts, discarding the high bytes
+  public void writeQbShortLows(int[] src, int off, int len) throws IOException {
+    final byte[] dst = scratch(len * 2);
+    for (int i = 0; i < len; i++) {
+      dst[i * 2] = (byte)(src[off + i] & 0xFF);
+      dst[i * 2 + 1] = 0;
+    }
+    write(dst, 0, len * 2);
+  }
+  
+  // write len ints as little-endian unsigned shorts
+  public void writeQbUnsignedShorts(int[] src, int off, int len) throws IOException {
+    final byte[] dst = scratch(len * 2);
+    for (int i = 0; i < len; i++) {
+      dst[i * 2] = (byte)(src[off + i] & 0xFF);
+      dst[i * 2 + 1] = (byte)((src[off + i] >> 8) & 0xFF);
+    }
+    write(dst, 0, len * 2);
+  }
+  
+  
+  private byte[] scratch(int len) {
+    if (bytes.length < len) {
+      bytes = new byte[len];
+    }
+    return bytes;
+  }
+  
 }
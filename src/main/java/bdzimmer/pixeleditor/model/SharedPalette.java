@@ -0,0 +1,70 @@
+// Copyright (c) 2016 Ben Zimmer. All rights reserved.
+
+// A palette shared between windows, with a modification counter so that
+// CLUTs are only recalculated when the colors actually change.
+
+package bdzimmer.pixeleditor.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class SharedPalette {
+
+  /**
+   * Notified after the colors of a SharedPalette have been modified.
+   */
+  public interface Listener {
+    void paletteModified(SharedPalette palette);
+  }
+
+  private final Color[] colors;
+  private final List<Listener> listeners = new ArrayList<Listener>();
+  private int version = 0;
+
+
+  /**
+   * Create a new SharedPalette.
+   *
+   * @param colors      array of colors; modified in place by editors
+   */
+  public SharedPalette(Color[] colors) {
+    this.colors = colors;
+  }
+
+
+  /**
+   * Signal that the colors have been modified. Increments the version
+   * and notifies listeners.
+   */
+  public void modified() {
+    version++;
+    // copy so that listeners may remove themselves
+    Listener[] current = listeners.toArray(new Listener[listeners.size()]);
+    for (Listener listener : current) {
+      listener.paletteModified(this);
+    }
+  }
+
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  public Color[] getColors() {
+    return colors;
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  public int length() {
+    return colors.length;
+  }
+
+}
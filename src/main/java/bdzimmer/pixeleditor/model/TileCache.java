@@ -0,0 +1,180 @@
+// Copyright (c) 2016 Ben Zimmer. All rights reserved.
+
+// Cache of tiles pre-rendered to packed RGB at a given scale, keyed by
+// tile index, palette offset, and flip state.
+
+package bdzimmer.pixeleditor.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+
+public class TileCache {
+
+  private final Tile[] tiles;
+  private final SharedPalette palette;
+  private final int colorFactor;
+  private final int scale;
+  private final int transparentIndex;
+  private final int tileWidth;
+  private final int tileHeight;
+
+  // versions of tiles as they were when rendered
+  private final int[] versions;
+  private final ArrayList<HashMap<Integer, int[]>> rendered;
+
+  private int[] palettePacked;
+  private int paletteVersion = -1;
+
+
+  /**
+   * Create a new TileCache.
+   *
+   * @param tiles             tiles to render
+   * @param palette           shared palette
+   * @param bitsPerChannel    bits per channel of palette colors
+   * @param scale             pixel scaling of rendered tiles
+   * @param transparentIndex  bitmap value rendered with zero alpha,
+   *                          or IndexedGraphics.NO_TRANSPARENCY
+   */
+  public TileCache(
+      Tile[] tiles,
+      SharedPalette palette,
+      int bitsPerChannel,
+      int scale,
+      int transparentIndex) {
+
+    this.tiles = tiles;
+    this.palette = palette;
+    this.colorFactor = 1 << (8 - bitsPerChannel);
+    this.scale = scale;
+    this.transparentIndex = transparentIndex;
+    this.tileWidth = tiles[0].bitmap()[0].length;
+    this.tileHeight = tiles[0].bitmap().length;
+
+    this.versions = new int[tiles.length];
+    this.rendered = new ArrayList<HashMap<Integer, int[]>>(
+        Collections.<HashMap<Integer, int[]>>nCopies(tiles.length, null));
+    this.palettePacked = new int[palette.length()];
+
+  }
+
+
+  /**
+   * Get a rendered tile, rendering it if it is not cached or if the tile
+   * has been marked modified or the palette has changed since it was
+   * rendered.
+   *
+   * @param tileIdx     index of tile
+   * @param palOffset   offset added to each color index
+   * @param flipX       flip horizontally
+   * @param flipY       flip vertically
+   * @return            packed RGB pixels, (tileWidth * scale) x (tileHeight * scale)
+   */
+  public int[] get(int tileIdx, int palOffset, boolean flipX, boolean flipY) {
+
+    if (paletteVersion != palette.getVersion()) {
+      invalidateAll();
+      updateClut();
+      paletteVersion = palette.getVersion();
+    }
+
+    int version = tiles[tileIdx].getVersion();
+    if (versions[tileIdx] != version) {
+      rendered.set(tileIdx, null);
+      versions[tileIdx] = version;
+    }
+
+    HashMap<Integer, int[]> tileRendered = rendered.get(tileIdx);
+    if (tileRendered == null) {
+      tileRendered = new HashMap<Integer, int[]>();
+      rendered.set(tileIdx, tileRendered);
+    }
+
+    Integer key = (palOffset << 2) | (flipY ? 2 : 0) | (flipX ? 1 : 0);
+    int[] result = tileRendered.get(key);
+    if (result == null) {
+      result = render(tiles[tileIdx].bitmap(), palOffset, flipX, flipY);
+      tileRendered.put(key, result);
+    }
+
+    return result;
+
+  }
+
+
+  /**
+   * Remove all rendered versions of a tile.
+   *
+   * @param tileIdx     index of tile
+   */
+  public void invalidate(int tileIdx) {
+    rendered.set(tileIdx, null);
+  }
+
+
+  /**
+   * Remove all rendered tiles.
+   */
+  public void invalidateAll() {
+    Collections.fill(rendered, null);
+  }
+
+
+  public int getTileWidth() {
+    return tileWidth;
+  }
+
+  public int getTileHeight() {
+    return tileHeight;
+  }
+
+  public int getScale() {
+    return scale;
+  }
+
+
+  ///
+
+
+  private void updateClut() {
+    Color[] colors = palette.getColors();
+    if (palettePacked.length != colors.length) {
+      palettePacked = new int[colors.length];
+    }
+    for (int i = 0; i < colors.length; i++) {
+      palettePacked[i] = 255 << 24 | (colors[i].r() * colorFactor) << 16 | (colors[i].g() * colorFactor) << 8 | (colors[i].b() * colorFactor);
+    }
+  }
+
+
+  private int[] render(int[][] bitmap, int palOffset, boolean flipX, boolean flipY) {
+
+    int rowLength = tileWidth * scale;
+    int[] result = new int[rowLength * tileHeight * scale];
+
+    for (int i = 0; i < tileHeight; i++) {
+      int[] srcRow = bitmap[flipY ? tileHeight - 1 - i : i];
+      int rowStart = i * scale * rowLength;
+
+      for (int j = 0; j < tileWidth; j++) {
+        int colorIndex = srcRow[flipX ? tileWidth - 1 - j : j];
+        if (colorIndex != transparentIndex) {
+          Arrays.fill(
+              result, rowStart + j * scale, rowStart + (j + 1) * scale,
+              palettePacked[colorIndex + palOffset]);
+        }
+      }
+
+      for (int k = 1; k < scale; k++) {
+        System.arraycopy(result, rowStart, result, rowStart + k * rowLength, rowLength);
+      }
+    }
+
+    return result;
+
+  }
+
+}
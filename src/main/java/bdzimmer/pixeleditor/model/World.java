@@ -2,13 +2,27 @@
 
 package bdzimmer.pixeleditor.model;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
 
 public class World {
 
+  private static final String startFile = "start.spt";
+
   private ArrayList<ScriptFile> scriptFiles = new ArrayList<ScriptFile>();
 
   private final String contentDir;
+
+  // parsed scripts by filename, and filenames that have been queued
+  private final ConcurrentHashMap<String, ScriptFile> parsed =
+      new ConcurrentHashMap<String, ScriptFile>();
+  private final Set<String> visited = ConcurrentHashMap.<String>newKeySet();
   
   /**
    * Create a new World object.
@@ -17,7 +31,7 @@ public class World {
     
     this.contentDir = contentDir;
     
-    this.addScriptFile("start.spt");
+    this.addScriptFiles(startFile);
 
     // Collections.sort(this.scriptFiles);
 
@@ -27,27 +41,63 @@ public class World {
 
   }
 
-  // recursive method to populate list of scripts
-  private ScriptFile addScriptFile(String filename) {
-    ScriptFile curScriptFile = new ScriptFile(contentDir, filename);
-
-    // if we haven't already done this
-    if (!this.scriptFiles.contains(curScriptFile)) {
-
-      this.scriptFiles.add(curScriptFile);
-
-      for (String link : curScriptFile.getLinks()) {
-        this.addScriptFile(link);
+  // parse every script reachable from a starting script in parallel, then
+  // list them in depth-first order of links
+  private void addScriptFiles(String filename) {
+
+    visited.add(filename);
+    ForkJoinPool.commonPool().invoke(new Crawl(null, filename));
+
+    HashSet<String> added = new HashSet<String>();
+    ArrayDeque<String> stack = new ArrayDeque<String>();
+    stack.push(filename);
+
+    while (!stack.isEmpty()) {
+      String curFilename = stack.pop();
+      if (added.add(curFilename)) {
+        ScriptFile curScriptFile = parsed.get(curFilename);
+        this.scriptFiles.add(curScriptFile);
+        List<String> links = curScriptFile.getLinks();
+        for (int i = links.size() - 1; i >= 0; i--) {
+          stack.push(links.get(i));
+        }
       }
-
     }
 
-    return curScriptFile;
-
   }
 
   public ArrayList<ScriptFile> getScriptFiles() {
     return this.scriptFiles;
   }
 
+
+  // parses a script and forks a task for each link not yet seen; tasks
+  // complete without waiting on each other, so long chains of scripts
+  // do not build deep stacks
+  private class Crawl extends CountedCompleter<Void> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String filename;
+
+    Crawl(CountedCompleter<?> parent, String filename) {
+      super(parent);
+      this.filename = filename;
+    }
+
+    @Override
+    public void compute() {
+      ScriptFile scriptFile = new ScriptFile(contentDir, filename);
+      parsed.put(filename, scriptFile);
+      for (String link : scriptFile.getLinks()) {
+        if (visited.add(link)) {
+          addToPendingCount(1);
+          new Crawl(this, link).fork();
+        }
+      }
+      tryComplete();
+    }
+
+  }
+
 }
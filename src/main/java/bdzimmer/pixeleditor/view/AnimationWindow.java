@@ -105,11 +105,11 @@ public class AnimationWindow extends CommonWindow {
 	int width = tiles[0].bitmap()[0].length;
 			
     IndexedGraphics dg = new IndexedGraphics(
+        palette, 6,
         height + borderY * 2,
         width  + borderX * 2,
-        this.scale);
+        this.scale, true);
 
-    dg.setPalette(palette);
     return dg;
   }
 
@@ -156,7 +156,7 @@ public class AnimationWindow extends CommonWindow {
     	borderX,
     	borderY);
     
-    dosGraphics.repaint();
+    dosGraphics.repaintDirty();
   }
 
 
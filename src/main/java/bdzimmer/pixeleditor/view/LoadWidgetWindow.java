@@ -3,15 +3,37 @@
 package bdzimmer.pixeleditor.view;
 
 import java.awt.Dimension;
-import java.awt.GridLayout;
+import java.awt.Rectangle;
 import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JScrollBar;
+import javax.swing.SwingUtilities;
+
+import bdzimmer.pixeleditor.controller.ThumbnailCache;
+import bdzimmer.pixeleditor.model.ContentStructure;
 
 
 public abstract class LoadWidgetWindow extends JFrame {
@@ -20,40 +42,117 @@ public abstract class LoadWidgetWindow extends JFrame {
   
   private static final int numColumns = 2;
   private static final int margin = 20;
+
+  // rows above and below the viewport that are kept loaded
+  private static final int slackRows = 1;
+
+  // at most this many images are rendered at once
+  private static final int loaderThreads = Math.max(
+      1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
   
   protected final Main main;
-  private final ArrayList<ImageWidget> worldObjects;
+  protected final ThumbnailCache thumbnails;
+
+  // empty until populateObjects has run in the background
+  private List<WidgetSource> sources = new ArrayList<WidgetSource>();
+  private final String[] buttonLabels;
+  private final BufferedImage blankImage;
+  private final int cellWidth;
+  private final int cellHeight;
+
+  // widgets are only bound to items in and near the viewport;
+  // the rest are kept for reuse
+  private Slot[] slots = new Slot[0];
+  private final ArrayDeque<Slot> spareSlots = new ArrayDeque<Slot>();
+
+  // images of bound items, and renders in progress
+  private final HashMap<Integer, BufferedImage> images = new HashMap<Integer, BufferedImage>();
+  private final HashMap<Integer, Future<?>> pending = new HashMap<Integer, Future<?>>();
 
   private JPanel scrollingSurface = new JPanel();
+  private JScrollPane scrollPane = new JScrollPane();
+  private ExecutorService loader;
+
+
+  /**
+   * An object shown in the window. Its image is rendered in the background
+   * when it is scrolled into view.
+   */
+  public interface WidgetSource {
+
+    /**
+     * Get the title. Called on the event dispatch thread, so this
+     * should not read any files.
+     *
+     * @return  title
+     */
+    String title();
+
+    /**
+     * Get the image for the widget, usually through the window's
+     * thumbnail cache. Called on a worker thread.
+     *
+     * @return  image
+     */
+    BufferedImage image();
+
+    /**
+     * Respond to a button click.
+     *
+     * @param button    index of the button in the window's button labels
+     */
+    void action(int button);
+
+  }
+
+
+  /**
+   * Create a new WorldObjectWindow with images of the default size.
+   * 
+   * @param inputDir      input directory for world data
+   * @param title         title for window
+   * @param buttonLabels  labels of the buttons for each object
+   */
+  public LoadWidgetWindow(Main main, String inputDir, String title, String[] buttonLabels) {
+    this(main, inputDir, title, buttonLabels,
+        ImageWidget.DefaultWidth(), ImageWidget.DefaultHeight());
+  }
+
 
   /**
    * Create a new WorldObjectWindow.
    * 
    * @param inputDir      input directory for world data
    * @param title         title for window
+   * @param buttonLabels  labels of the buttons for each object
+   * @param imageWidth    width of object images
+   * @param imageHeight   height of object images
    */
-  public LoadWidgetWindow(Main main, String inputDir, String title) {
+  public LoadWidgetWindow(
+      Main main, String inputDir, String title, String[] buttonLabels,
+      int imageWidth, int imageHeight) {
     
     this.main = main;
+    this.thumbnails = new ThumbnailCache(
+        new File(main.contentDir, ContentStructure.ThumbnailDir()));
+    this.buttonLabels = buttonLabels;
+    this.blankImage = ImageWidget.blankImage(imageWidth, imageHeight);
     this.setTitle(title);
+    this.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 
-    this.worldObjects = this.populateObjects(inputDir);
-    
-    int numRows = (int)Math.ceil(this.worldObjects.size() / (double)numColumns);
-    
-    this.scrollingSurface.setLayout(
-        new GridLayout(numRows, numColumns, margin, margin));
+    // widgets are positioned by updateVisible
+    this.scrollingSurface.setLayout(null);
        
-    ImageWidget wo = this.worldObjects.get(0);
+    Slot wo = this.takeSlot();
+    this.cellWidth = wo.widget.wx();
+    this.cellHeight = wo.widget.wy();
+    this.spareSlots.push(wo);
     
-    int surfaceWidth = wo.wx() * numColumns + margin * (numColumns - 1);
-    int surfaceHeight = wo.wy() * numRows + margin * (numRows - 1);
-    int panelHeight = wo.wy() * 3 + margin * 2;
+    int surfaceWidth = cellWidth * numColumns + margin * (numColumns - 1);
+    int panelHeight = cellHeight * 3 + margin * 2;
     
-    this.scrollingSurface.setPreferredSize(
-        new Dimension(surfaceWidth, surfaceHeight));
+    this.scrollingSurface.setPreferredSize(new Dimension(surfaceWidth, 0));
 
-    JScrollPane scrollPane = new JScrollPane();
     scrollPane.getVerticalScrollBar().setUnitIncrement(20);
     scrollPane.setViewportView(this.scrollingSurface);
     scrollPane.setPreferredSize(new Dimension(surfaceWidth, panelHeight));
@@ -62,8 +161,12 @@ public abstract class LoadWidgetWindow extends JFrame {
     // this is important, otherwise there will be extra padding
     // and a horizontal scrollbar will be created.
     scrollPane.setBorder(new EmptyBorder(0, 0, 0, 0));
-    
-    this.refresh();
+
+    scrollPane.getViewport().addChangeListener(new ChangeListener() {
+      public void stateChanged(ChangeEvent event) {
+        updateVisible();
+      }
+    });
     
     // TODO: what happens when there are not enough components for a vertical scrollbar?
     JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
@@ -72,22 +175,216 @@ public abstract class LoadWidgetWindow extends JFrame {
     this.setLayout(new BorderLayout());
     this.add(scrollPane, BorderLayout.CENTER);
     this.add(scrollBar, BorderLayout.EAST);
+
+    loader = Executors.newFixedThreadPool(loaderThreads, new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "widget loader");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    // stop rendering images for a window that is gone
+    this.addWindowListener(new WindowAdapter() {
+      @Override
+      public void windowClosed(WindowEvent event) {
+        loader.shutdownNow();
+      }
+    });
     
     this.pack();
-    this.repaint();
     this.setVisible(true);
+
+    this.startPopulating(inputDir);
     
   }
 
-  public abstract ArrayList<ImageWidget> populateObjects(String inputDir);
+  /**
+   * Find the objects to show. Called on a worker thread after the
+   * window is visible.
+   *
+   * @param inputDir      input directory for world data
+   * @return  sources of the widgets, in order
+   */
+  public abstract List<WidgetSource> populateObjects(String inputDir);
+
+
+  // find the objects to show on a worker thread, since that may mean
+  // reading many files, then lay them out once the window is up
+  private void startPopulating(final String inputDir) {
+    loader.submit(new Runnable() {
+      public void run() {
+        final List<WidgetSource> result;
+        try {
+          result = populateObjects(inputDir);
+        } catch (Exception e) {
+          System.err.println(e);
+          return;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            populated(result);
+          }
+        });
+      }
+    });
+  }
+
+
+  private void populated(List<WidgetSource> result) {
+
+    if (loader.isShutdown()) {
+      // closed while populating
+      return;
+    }
+
+    sources = result;
+    slots = new Slot[sources.size()];
+
+    int numRows = (int)Math.ceil(sources.size() / (double)numColumns);
+    int surfaceWidth = cellWidth * numColumns + margin * (numColumns - 1);
+    int surfaceHeight = Math.max(0, cellHeight * numRows + margin * (numRows - 1));
+    scrollingSurface.setPreferredSize(new Dimension(surfaceWidth, surfaceHeight));
+    scrollingSurface.revalidate();
+
+    updateVisible();
+
+  }
+
+
+  // bind widgets to the items in and near the viewport, release the
+  // widgets and images of the rest, and start rendering missing images
+  private void updateVisible() {
+
+    if (loader.isShutdown()) {
+      // closed, with scroll or resize events still queued; the loader
+      // would reject new images
+      return;
+    }
+
+    Rectangle view = scrollPane.getViewport().getViewRect();
+    int rowHeight = cellHeight + margin;
+    int firstRow = Math.max(0, view.y / rowHeight - slackRows);
+    int lastRow = (view.y + view.height) / rowHeight + 1 + slackRows;
+    int first = firstRow * numColumns;
+    int last = Math.min(sources.size(), lastRow * numColumns);
+
+    // release items outside the range
+    for (int i = 0; i < slots.length; i++) {
+      if ((i < first || i >= last) && slots[i] != null) {
+        scrollingSurface.remove(slots[i].widget);
+        slots[i].index = -1;
+        spareSlots.push(slots[i]);
+        slots[i] = null;
+      }
+    }
+    release(images, first, last);
+    for (Iterator<Map.Entry<Integer, Future<?>>> it = pending.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<Integer, Future<?>> entry = it.next();
+      if (entry.getKey() < first || entry.getKey() >= last) {
+        entry.getValue().cancel(false);
+        it.remove();
+      }
+    }
 
-  private void refresh() {
-    scrollingSurface.removeAll();
-    for (ImageWidget wo : worldObjects) {
-      scrollingSurface.add(wo);
+    // bind items inside the range
+    for (int i = first; i < last; i++) {
+      if (slots[i] == null) {
+        Slot slot = takeSlot();
+        slot.index = i;
+        slot.widget.setTitle(sources.get(i).title());
+        BufferedImage image = images.get(i);
+        slot.widget.setImage(image == null ? blankImage : image);
+        slot.widget.setBounds(
+            (i % numColumns) * (cellWidth + margin), (i / numColumns) * rowHeight,
+            cellWidth, cellHeight);
+        scrollingSurface.add(slot.widget);
+        slots[i] = slot;
+      }
+      if (!images.containsKey(i) && !pending.containsKey(i)) {
+        pending.put(i, load(i));
+      }
     }
+
     scrollingSurface.repaint();
-    repaint();
+
+  }
+
+
+  // render an image in the background and hand it to loaded
+  private Future<?> load(final int index) {
+    final WidgetSource source = sources.get(index);
+    return loader.submit(new Runnable() {
+      public void run() {
+        BufferedImage image = null;
+        try {
+          image = source.image();
+        } catch (Exception e) {
+          System.err.println(e);
+        }
+        final BufferedImage result = image;
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            loaded(index, result);
+          }
+        });
+      }
+    });
+  }
+
+
+  private void loaded(int index, BufferedImage image) {
+    if (pending.remove(index) == null) {
+      // scrolled out of range while rendering
+      return;
+    }
+    // items that failed to render stay blank
+    BufferedImage shown = image == null ? blankImage : image;
+    images.put(index, shown);
+    if (slots[index] != null) {
+      slots[index].widget.setImage(shown);
+    }
+  }
+
+
+  private Slot takeSlot() {
+    return spareSlots.isEmpty() ? new Slot() : spareSlots.pop();
+  }
+
+
+  private static void release(HashMap<Integer, ?> items, int first, int last) {
+    for (Iterator<Integer> it = items.keySet().iterator(); it.hasNext();) {
+      int index = it.next();
+      if (index < first || index >= last) {
+        it.remove();
+      }
+    }
+  }
+
+
+  // a widget along with the index of the item it currently shows
+  private class Slot {
+
+    final ImageWidget widget;
+    int index = -1;
+
+    Slot() {
+      ArrayList<JButton> buttons = new ArrayList<JButton>();
+      for (int i = 0; i < buttonLabels.length; i++) {
+        final int button = i;
+        JButton jb = new JButton(buttonLabels[i]);
+        jb.addActionListener(new ActionListener() {
+          public void actionPerformed(ActionEvent event) {
+            if (index >= 0) {
+              sources.get(index).action(button);
+            }
+          }
+        });
+        buttons.add(jb);
+      }
+      this.widget = new ImageWidget("", blankImage, buttons);
+    }
+
   }
 
 }
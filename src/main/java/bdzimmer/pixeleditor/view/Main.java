@@ -19,7 +19,8 @@ import bdzimmer.pixeleditor.model.TileContainer;
 import bdzimmer.pixeleditor.model.TileOptions;
 import bdzimmer.pixeleditor.model.Tileset;
 import bdzimmer.pixeleditor.model.TileAttributes;
-import bdzimmer.pixeleditor.model.Color;
+import bdzimmer.pixeleditor.model.SharedPalette;
+import bdzimmer.pixeleditor.controller.LazyTilesetLoader;
 import bdzimmer.pixeleditor.controller.OldTilesetLoader;
 import bdzimmer.pixeleditor.controller.TileUtil;
 
@@ -49,7 +50,7 @@ public class Main extends CommonWindow {
 
   // private final int[][] globalPalette = new int[256][3];
 
-  private final Color[] globalPalette = TileUtil.colorArray(256); // new Color[256];
+  private final SharedPalette globalPalette = new SharedPalette(TileUtil.colorArray(256)); // new Color[256];
 
   // private PaletteWindowOld paletteWindow = new PaletteWindowOld(globalPalette);
 
@@ -98,8 +99,9 @@ public class Main extends CommonWindow {
     Tileset tiles;
 
     if (!"".equals(tileFileName)) {
-      tiles = new OldTilesetLoader(tileFileName, tileAttrs).load();
-      Tileset.modPalette(tiles.palettes().apply(0), globalPalette);
+      tiles = new LazyTilesetLoader(tileFileName, tileAttrs).load();
+      Tileset.modPalette(tiles.palettes().apply(0), globalPalette.getColors());
+      globalPalette.modified();
       paletteWindow.repaint();
     } else {
       tiles = OldTilesetLoader.fromAttributes(tileAttrs);
@@ -144,8 +146,9 @@ public class Main extends CommonWindow {
     Tileset spriteTiles;
 
     if (!"".equals(spritesFileName)) {
-      spriteTiles = new OldTilesetLoader(spritesFileName, spriteAttributes).load();
-      Tileset.modPalette(spriteTiles.palettes().apply(0), globalPalette);
+      spriteTiles = new LazyTilesetLoader(spritesFileName, spriteAttributes).load();
+      Tileset.modPalette(spriteTiles.palettes().apply(0), globalPalette.getColors());
+      globalPalette.modified();
       paletteWindow.repaint();
     } else {
       spriteTiles = OldTilesetLoader.fromAttributes(TileOptions.getOrQuit(tiletype));
@@ -155,7 +158,6 @@ public class Main extends CommonWindow {
         Main.this.contentDir + File.separator + ContentStructure.SpriteDir(),
         spriteTiles, spriteAttributes, "Sprites", spritesFileName,
         paletteWindow, tileContainer);
-    spriteWindow.getDosGraphics().setPalette(globalPalette);
 
     spriteWindow.setLocationRelativeTo(null);
 
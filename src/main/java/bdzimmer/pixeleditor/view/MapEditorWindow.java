@@ -9,10 +9,10 @@ package bdzimmer.pixeleditor.view;
 
 import bdzimmer.pixeleditor.model.Map;
 import bdzimmer.pixeleditor.model.Palette;
+import bdzimmer.pixeleditor.model.SharedPalette;
 import bdzimmer.pixeleditor.model.Tile;
 import bdzimmer.pixeleditor.model.TileProperties;
 import bdzimmer.pixeleditor.model.TileContainer;
-import bdzimmer.pixeleditor.model.Color;
 import bdzimmer.pixeleditor.view.MapViewPanel;
 
 import java.awt.Graphics;
@@ -25,6 +25,8 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 
 import javax.swing.JButton;
@@ -57,7 +59,8 @@ public class MapEditorWindow extends CommonWindow {
 
   // private final TilesEditorWindow tilesEditorWindow;
 
-  private final Color[] palette;
+  private final SharedPalette palette;
+  private final SharedPalette.Listener paletteListener;
   private final Tile[] tiles;
   private final TileProperties[] properties;
   private final TileContainer tileContainer;
@@ -77,7 +80,7 @@ public class MapEditorWindow extends CommonWindow {
       String mapsDir,
       Map map,
       String fileName,
-      Color[] palette,
+      SharedPalette palette,
       Tile[] tiles,
       TileProperties[] properties,
       TileContainer tileContainer) { // constructor
@@ -97,12 +100,25 @@ public class MapEditorWindow extends CommonWindow {
     build(JFrame.DISPOSE_ON_CLOSE);
     mapViewPanel = (MapViewPanel)panel;
 
+    // repaint when the palette is modified
+    paletteListener = new SharedPalette.Listener() {
+      public void paletteModified(SharedPalette palette) {
+        repaint();
+      }
+    };
+    palette.addListener(paletteListener);
+    addWindowListener(new WindowAdapter() {
+      public void windowClosed(WindowEvent event) {
+        MapEditorWindow.this.palette.removeListener(paletteListener);
+      }
+    });
+
     // listener for scrolling with arrow keys
     addKeyListener(new KeyAdapter() {
       public void keyPressed(KeyEvent ae) { handleKeys(ae); }
     });
 
-    packAndShow(false);
+    packAndShow(true);
 
   }
 
@@ -111,11 +127,13 @@ public class MapEditorWindow extends CommonWindow {
   // ------------------------------------------------------
 
   private void zoom(int amount) {
-    mapViewPanel.scale += amount;
-    if (mapViewPanel.scale < 1) {
-      mapViewPanel.scale = 1;
+    int scale = mapViewPanel.scale + amount;
+    if (scale < 1) {
+      scale = 1;
     }
-    updateGraphics();
+    mapViewPanel.setScale(scale);
+    pack();
+    repaint();
   }
 
   private void handleClicks(MouseEvent ae) {
@@ -124,31 +142,28 @@ public class MapEditorWindow extends CommonWindow {
         + (ae.getY() / (MapEditorWindow.TILE_SIZE * mapViewPanel.scale));
     int ctlr = mapViewPanel.vlr
         + (ae.getX() / (MapEditorWindow.TILE_SIZE * mapViewPanel.scale));
-    if (ctud < 0 || ctud > 127) {
-      return;
-    }
-    if (ctlr < 0 || ctlr > 127) {
+    if (ctud < 0 || ctlr < 0) {
       return;
     }
 
     if (!ae.isMetaDown()) {
       if (overlayEdit == 0) {
-        map.map[ctud][ctlr] = tileContainer.getTileIndex();
+        map.map.set(ctud, ctlr, tileContainer.getTileIndex());
       } else if (overlayEdit == 1) {
-        map.overMap[ctud][ctlr] = tileContainer.getTileIndex();
+        map.overMap.set(ctud, ctlr, tileContainer.getTileIndex());
       } else if (overlayEdit == 2) {
-        map.paraMap[ctud][ctlr] = tileContainer.getTileIndex();
+        map.paraMap.set(ctud, ctlr, tileContainer.getTileIndex());
       }
-      repaint();
+      mapViewPanel.updateTile(ctud, ctlr);
 
     } else {
       int selectedTile = 0;
       if (overlayEdit == 0) {
-        selectedTile = map.map[ctud][ctlr];
+        selectedTile = map.map.get(ctud, ctlr);
       } else if (overlayEdit == 1) {
-        selectedTile = map.overMap[ctud][ctlr];
+        selectedTile = map.overMap.get(ctud, ctlr);
       } else if (overlayEdit == 2) {
-        selectedTile = map.paraMap[ctud][ctlr];
+        selectedTile = map.paraMap.get(ctud, ctlr);
       }
       if (selectedTile > tiles.length) {
         selectedTile = tiles.length;
@@ -166,53 +181,64 @@ public class MapEditorWindow extends CommonWindow {
 
     System.out.println("key pressed");
 
+    // extent of the map, for shifting rows and columns; this scans the
+    // layers, so it is only found for shifts
+    int maxRow = -1;
+    int maxCol = -1;
+    if (ae.isAltDown()) {
+      maxRow = Math.max(map.map.getMaxRow(), map.overMap.getMaxRow());
+      maxCol = Math.max(map.map.getMaxCol(), map.overMap.getMaxCol());
+    }
+
     if (ae.getKeyCode() == KeyEvent.VK_UP) {
       if (!ae.isAltDown()) {
-        mapViewPanel.vud -= 1;
+        mapViewPanel.scroll(-1, 0);
       } else {
-        for (int i = mapViewPanel.vud; i < 127; i++) {
-          for (int j = 0; j < 128; j++) {
-            map.map[i][j] = map.map[i + 1][j];
-            map.overMap[i][j] = map.overMap[i + 1][j];
+        for (int i = Math.max(0, mapViewPanel.vud); i <= maxRow; i++) {
+          for (int j = 0; j <= maxCol; j++) {
+            map.map.set(i, j, map.map.get(i + 1, j));
+            map.overMap.set(i, j, map.overMap.get(i + 1, j));
           }
         }
       }
     } else if (ae.getKeyCode() == KeyEvent.VK_DOWN) {
       if (!ae.isAltDown()) {
-        mapViewPanel.vud += 1;
+        mapViewPanel.scroll(1, 0);
       } else {
-        for (int i = 127; i >= (mapViewPanel.vud + 1); i--) {
-          for (int j = 0; j < 128; j++) {
-            map.map[i][j] = map.map[i - 1][j];
-            map.overMap[i][j] = map.overMap[i - 1][j];
+        for (int i = maxRow + 1; i >= Math.max(0, mapViewPanel.vud) + 1; i--) {
+          for (int j = 0; j <= maxCol; j++) {
+            map.map.set(i, j, map.map.get(i - 1, j));
+            map.overMap.set(i, j, map.overMap.get(i - 1, j));
           }
         }
       }
     } else if (ae.getKeyCode() == KeyEvent.VK_LEFT) {
       if (!ae.isAltDown()) {
-        mapViewPanel.vlr -= 1;
+        mapViewPanel.scroll(0, -1);
       } else {
-        for (int i = 0; i < 128; i++) {
-          for (int j = mapViewPanel.vlr; j < 127; j++) {
-            map.map[i][j] = map.map[i][j + 1];
-            map.overMap[i][j] = map.overMap[i][j + 1];
+        for (int i = 0; i <= maxRow; i++) {
+          for (int j = Math.max(0, mapViewPanel.vlr); j <= maxCol; j++) {
+            map.map.set(i, j, map.map.get(i, j + 1));
+            map.overMap.set(i, j, map.overMap.get(i, j + 1));
           }
         }
       }
     } else if (ae.getKeyCode() == KeyEvent.VK_RIGHT) {
       if (!ae.isAltDown()) {
-        mapViewPanel.vlr += 1;
+        mapViewPanel.scroll(0, 1);
       } else {
-        for (int i = 0; i < 128; i++) {
-          for (int j = 127; j >= mapViewPanel.vlr + 1; j--) {
-            map.map[i][j] = map.map[i][j - 1];
-            map.overMap[i][j] = map.overMap[i][j - 1];
+        for (int i = 0; i <= maxRow; i++) {
+          for (int j = maxCol + 1; j >= Math.max(0, mapViewPanel.vlr) + 1; j--) {
+            map.map.set(i, j, map.map.get(i, j - 1));
+            map.overMap.set(i, j, map.overMap.get(i, j - 1));
           }
         }
       }
     }
 
-    repaint();
+    if (ae.isAltDown()) {
+      mapViewPanel.redraw();
+    }
 
   }
 
@@ -286,14 +312,12 @@ public class MapEditorWindow extends CommonWindow {
   // updating graphics
   // --------------------------------------------------------
 
-  private void updateGraphics() {
-    mapViewPanel.setTiles(tiles, properties);
-    mapViewPanel.updateGraphics();
-    pack();
-    repaint();
+  // tiles may have been edited in another window
+  @Override
+  protected void onFocus() {
+    mapViewPanel.redraw();
   }
 
-
   public void paint(Graphics gr) {
     super.paint(gr);
     mapViewPanel.repaint();
@@ -328,7 +352,7 @@ public class MapEditorWindow extends CommonWindow {
         MapEditorWindow.this.map.erase();
         mapViewPanel.vud = 0;
         mapViewPanel.vlr = 0;
-        repaint();
+        mapViewPanel.redraw();
       }
     });
 
@@ -362,7 +386,7 @@ public class MapEditorWindow extends CommonWindow {
     fullMap.addActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent ae) {
         // TODO: defaults to 6 bits per channel
-        Palette p = new Palette(0, palette.length, palette, 6);
+        Palette p = new Palette(0, palette.length(), palette.getColors(), 6);
         new ImageWindow(MapEditorWindow.this.map.image(tiles, p));
       }
     });
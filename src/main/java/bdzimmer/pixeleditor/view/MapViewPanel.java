@@ -7,14 +7,25 @@ package bdzimmer.pixeleditor.view;
 
 import bdzimmer.pixeleditor.model.IndexedGraphics;
 import bdzimmer.pixeleditor.model.Map;
+import bdzimmer.pixeleditor.model.SharedPalette;
+import bdzimmer.pixeleditor.model.TileCache;
 import bdzimmer.pixeleditor.model.Tile;
 import bdzimmer.pixeleditor.model.Tileset;
 import bdzimmer.pixeleditor.model.TileProperties;
-import bdzimmer.pixeleditor.model.Color;
-import bdzimmer.pixeleditor.controller.TileUtil;
 
+import java.awt.AlphaComposite;
 import java.awt.BorderLayout;
+import java.awt.FlowLayout;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.swing.JPanel;
 
@@ -23,13 +34,31 @@ public class MapViewPanel extends JPanel {
 
   private static final long serialVersionUID = 1L;
 
+  // The view is drawn in separately cached layers that are composited
+  // by the IndexedGraphics: the background in its buffer, overlay tiles
+  // at buffer resolution, and bounds at display resolution.
+
   private IndexedGraphics dosGraphics;
+  private BufferedImage overImage;
+  private int[] overPixels;
+  private BufferedImage backBoundsImage;
+  private BufferedImage overBoundsImage;
 
   private Tile[] tiles;
   private int width;
   private int height;
   private TileProperties[] properties;
-  private Color[] rgbPalette;
+  private SharedPalette rgbPalette;
+
+  // pre-rendered tiles for the background and overlay layers
+  private TileCache backCache;
+  private TileCache overCache;
+
+  // whether each layer matches the map and view settings
+  private boolean backValid = false;
+  private boolean overValid = false;
+  private boolean boundsValid = false;
+  private int drawnPaletteVersion = -1;
 
   private boolean parallaxEdit = false;
 
@@ -54,21 +83,31 @@ public class MapViewPanel extends JPanel {
    * @param tileSet       tiles to use when displaying the map
    * @param rgbPalette    palette for displaying the map
    */
-  public MapViewPanel(Map map, Tile[] tiles, TileProperties[] properties, Color[] rgbPalette) {
+  public MapViewPanel(Map map, Tile[] tiles, TileProperties[] properties, SharedPalette rgbPalette) {
     this.map = map;
 
     setTiles(tiles, properties);
 
     this.rgbPalette = rgbPalette;
 
+    // no gaps, so that the view starts at the upper left of the panel
+    setLayout(new FlowLayout(FlowLayout.LEFT, 0, 0));
+
     dosGraphics = createDosGraphics();
     add(dosGraphics, BorderLayout.SOUTH);
+
+    // show as many tiles as fit when the panel is resized
+    addComponentListener(new ComponentAdapter() {
+      public void componentResized(ComponentEvent event) {
+        fitViewToPanel();
+      }
+    });
   }
 
   // ## --------------------------------------------
 
   /**
-   * Update the DosGraphics instance (used when changing scale).
+   * Update the DosGraphics instance.
    */
   public void updateGraphics() {
     remove(dosGraphics);
@@ -77,229 +116,436 @@ public class MapViewPanel extends JPanel {
   }
 
 
+  /**
+   * Change the number of tiles shown in the view. Recreates the
+   * DosGraphics and layers at the new size.
+   *
+   * @param numVerticalTiles    number of rows of tiles
+   * @param numHorizontalTiles  number of columns of tiles
+   */
+  public void setViewSize(int numVerticalTiles, int numHorizontalTiles) {
+    this.numVerticalTiles = numVerticalTiles;
+    this.numHorizontalTiles = numHorizontalTiles;
+    updateGraphics();
+    revalidate();
+    repaint();
+  }
+
+
+  // size the view to the largest number of whole tiles that fit in the panel
+  private void fitViewToPanel() {
+
+    if (getWidth() == 0 || getHeight() == 0) {
+      return;
+    }
+
+    int fitVertical = Math.max(1, getHeight() / (height * scale));
+    int fitHorizontal = Math.max(1, getWidth() / (width * scale));
+
+    if (fitVertical != numVerticalTiles || fitHorizontal != numHorizontalTiles) {
+      setViewSize(fitVertical, fitHorizontal);
+    }
+
+  }
+
+
+  /**
+   * Redraw all layers on the next paint. Call this after modifying
+   * the map or the tiles.
+   */
+  public void redraw() {
+    invalidateLayers();
+    repaint();
+  }
+
+
+  private void invalidateLayers() {
+    backValid = false;
+    overValid = false;
+    boundsValid = false;
+  }
+
+
   private IndexedGraphics createDosGraphics() {
 
     IndexedGraphics dg =  new IndexedGraphics(
+        rgbPalette, 6,
         numVerticalTiles * height,
         numHorizontalTiles * width,
-        scale);
+        scale, true, false);
 
     dg.setGridDimensions(width, height);
     dg.setShowGrid(dispGridlines);
-    dg.setPalette(rgbPalette);
-    dg.updateClut();
+
+    overImage = new BufferedImage(
+        numHorizontalTiles * width * dg.getBufferScale(),
+        numVerticalTiles * height * dg.getBufferScale(),
+        BufferedImage.TYPE_INT_ARGB);
+    overPixels = ((DataBufferInt) overImage.getRaster().getDataBuffer()).getData();
+    createBoundsImages();
+    createTileCaches(dg);
+    invalidateLayers();
 
     return dg;
   }
 
 
-  private void drawMap() {
-    if (this.tiles != null) {
-      // Draw map on screen.
-
-      if (this.parallaxEdit) {
-
-        for (int i = 0; i < 12; i++) {
-          for (int j = 0; j < 20; j++) {
-            int curTile;
-            if ((vud + i <= 23) && (vud + i >= 0)
-                && (vlr + j <= 39) && (vlr + j >= 0)) {
-              curTile = map.paraMap[i + vud][j + vlr];
-            } else {
-              curTile = 0;
-            }
-            TileUtil.drawTile(
-            	dosGraphics,
-                tiles[curTile].bitmap(),
-                j * width,
-                i * height);
+  // the tile caches must match the tiles and the scale of the buffer
+  private void createTileCaches(IndexedGraphics dg) {
+    backCache = new TileCache(
+        tiles, rgbPalette, 6, dg.getBufferScale(), IndexedGraphics.NO_TRANSPARENCY);
+    overCache = new TileCache(
+        tiles, rgbPalette, 6, dg.getBufferScale(), 255);
+  }
 
-          }
-        }
 
-      } else {
-
-        for (int i = 0; i < 12; i++) {
-          for (int j = 0; j < 20; j++) {
-            if (this.dispBack) {
-              int curTile;
-              if ((vud + i <= 127) && (vud + i >= 0)
-                  && (vlr + j <= 127) && (vlr + j >= 0)) {
-                curTile = map.map[i + vud][j + vlr];
-              } else {
-                curTile = 0;
-              }
-              TileUtil.drawTile(
-            	  dosGraphics,
-                  tiles[curTile].bitmap(),
-                  j * width,
-                  i * height);
-            } else {
-              TileUtil.drawTile(
-                  dosGraphics,
-                  new int[height][width],
-                  j * width,
-                  i * height);
-            }
-          }
-        }
+  // bounds lines are drawn at display resolution on top of the map
+  private void createBoundsImages() {
+    backBoundsImage = new BufferedImage(
+        numHorizontalTiles * width * scale,
+        numVerticalTiles * height * scale,
+        BufferedImage.TYPE_INT_ARGB);
+    overBoundsImage = new BufferedImage(
+        numHorizontalTiles * width * scale,
+        numVerticalTiles * height * scale,
+        BufferedImage.TYPE_INT_ARGB);
+    boundsValid = false;
+  }
+
+
+  // clear a region of a bounds image in display coordinates
+  private void clearBounds(Graphics2D boundsGraphics, int x, int y, int w, int h) {
+    boundsGraphics.setComposite(AlphaComposite.Clear);
+    boundsGraphics.fillRect(x, y, w, h);
+    boundsGraphics.setComposite(AlphaComposite.SrcOver);
+  }
+
+
+  // choose which layers to show
+  private void updateComposite() {
+
+    dosGraphics.setShowBuffer(dispBack || parallaxEdit);
+
+    List<Image> overlays = new ArrayList<Image>();
+    if (dispOver && !parallaxEdit) {
+      overlays.add(overImage);
+    }
+    if (dispBounds) {
+      if (dispBack) {
+        overlays.add(backBoundsImage);
+      }
+      if (dispOver) {
+        overlays.add(overBoundsImage);
+      }
+    }
+    dosGraphics.setOverlays(overlays.toArray(new Image[overlays.size()]));
+
+  }
+
+
+  // draw the background layer of a single cell of the view
+  private void drawBackCell(int i, int j) {
+
+    int curTile;
+    if (this.parallaxEdit) {
+      curTile = tileIndex(map.paraMap.get(i + vud, j + vlr));
+    } else {
+      curTile = backTile(i, j);
+    }
+
+    dosGraphics.blitPacked(
+        backCache.get(curTile, 0, false, false),
+        j * width, i * height, width, height, false);
+
+  }
 
-        if (this.dispOver) {
-          for (int i = 0; i < 12; i++) {
-            for (int j = 0; j < 20; j++) {
-              int curTile;
-              if ((vud + i <= 127) && (vud + i >= 0)
-                  && (vlr + j <= 127) && (vlr + j >= 0)) {
-                curTile = map.overMap[i + vud][j + vlr];
-              } else {
-                curTile = 0;
-              }
-              if (curTile > 0) {
-                TileUtil.drawTileTrans(
-                    dosGraphics,
-                    tiles[curTile].bitmap(),
-                    j * width,
-                    i * height);
-              }
-            }
-          }
-        }
 
+  // draw the overlay layer of a single cell of the view
+  // transparent pixels are copied too, so no per-pixel tests are needed
+  private void drawOverCell(int i, int j) {
+
+    int bufferScale = dosGraphics.getBufferScale();
+    int cellWidth = width * bufferScale;
+    int cellHeight = height * bufferScale;
+    int rowLength = numHorizontalTiles * cellWidth;
+    int upperleft = i * cellHeight * rowLength + j * cellWidth;
+
+    int curTile = overTile(i, j);
+
+    if (curTile > 0) {
+      int[] pixels = overCache.get(curTile, 0, false, false);
+      for (int k = 0; k < cellHeight; k++) {
+        System.arraycopy(pixels, k * cellWidth, overPixels, upperleft + k * rowLength, cellWidth);
       }
+    } else {
+      for (int k = 0; k < cellHeight; k++) {
+        int rowStart = upperleft + k * rowLength;
+        Arrays.fill(overPixels, rowStart, rowStart + cellWidth, 0);
+      }
+    }
+
+    dosGraphics.markDirty(j * width, i * height, width, height);
+
+  }
+
+
+  // draw the bounds layers of a single cell of the view
+  private void drawBoundsCell(Graphics2D backGraphics, Graphics2D overGraphics, int i, int j) {
+
+    clearBounds(backGraphics, j * width * scale, i * height * scale, width * scale, height * scale);
+    drawTileBounds(backGraphics, i, j, backTile(i, j));
+
+    clearBounds(overGraphics, j * width * scale, i * height * scale, width * scale, height * scale);
+    drawTileBounds(overGraphics, i, j, overTile(i, j));
+
+    dosGraphics.markDirty(j * width, i * height, width, height);
+
+  }
+
+
+  private Graphics2D boundsGraphics(BufferedImage boundsImage, int colorIndex) {
+    Graphics2D boundsGraphics = boundsImage.createGraphics();
+    boundsGraphics.setColor(new java.awt.Color(dosGraphics.getPalettePacked()[colorIndex]));
+    return boundsGraphics;
+  }
+
+
+  private int backTile(int i, int j) {
+    return tileIndex(map.map.get(i + vud, j + vlr));
+  }
+
+
+  private int overTile(int i, int j) {
+    return tileIndex(map.overMap.get(i + vud, j + vlr));
+  }
 
+
+  // cells may hold any 16-bit value; those past the end of the tiles
+  // are shown as tile 0
+  private int tileIndex(int tile) {
+    return tile < tiles.length ? tile : 0;
+  }
+
+
+  private void drawTileBounds(Graphics dgGraphics, int i, int j, int curTile) {
+
+    if (curTile >= properties.length) {
+      return;
+    }
+
+    if ((properties[curTile].value() & 1) == 0) {
+      dgGraphics.drawLine(
+          j * width  * scale,
+          i * height * scale + height * scale - 1,
+          j * width  * scale + width  * scale - 1,
+          i * height * scale + height * scale - 1);
+    }
+    if ((properties[curTile].value() & 2) == 0) {
+      dgGraphics.drawLine(
+          j * width  * scale,
+          i * height * scale,
+          j * width  * scale,
+          i * height * scale + height * scale - 1);
+    }
+    if ((properties[curTile].value() & 4) == 0) {
+      dgGraphics.drawLine(
+          j * width  * scale + width  * scale - 1,
+          i * height * scale,
+          j * width  * scale + width  * scale - 1,
+          i * height * scale + height * scale - 1);
     }
+    if ((properties[curTile].value() & 8) == 0) {
+      dgGraphics.drawLine(
+          j * width  * scale,
+          i * height * scale,
+          j * width  * scale + width  * scale - 1,
+          i * height * scale);
+    }
+    if ((properties[curTile].value() & 16) != 0) {
+      dgGraphics.drawLine(
+          j * width  * scale,
+          i * height * scale,
+          j * width  * scale + width * scale - 1,
+          i * height * scale + height * scale - 1);
+    }
+
   }
 
+
   /**
-   * Paint the component. Draws the map, updates the DosGraphics CLUT, and repaints
-   * the DosGraphics. Also draws bounds and tile properties on top.
+   * Paint the component. Rebuilds any layers that are out of date,
+   * then repaints the DosGraphics, which composites the layers.
    */
   public void paint(Graphics graphics) {
 
     // if you forget this....horrible flickering
     super.paint(graphics);
 
-    drawMap();
-    // System.out.println("Drew map");
-    dosGraphics.updateClut();
-    // System.out.println("updated clut");
-    dosGraphics.repaint();
-    Graphics dgGraphics = dosGraphics.getImage().getGraphics();
-
-    // Bounds drawing
-    if (this.dispBounds && this.tiles != null) {
-
-      dgGraphics.setColor(new java.awt.Color(dosGraphics.getPalettePacked()[255]));
-      for (int i = 0; i < 12; i++) {
-        for (int j = 0; j < 20; j++) {
-
-          if (this.dispBack) {
-            int curTile;
-            if ((vud + i) <= 127 && (vud + i) >= 0
-                && (vlr + j) <= 127 && (vlr + j) >= 0) {
-              curTile = map.map[i + vud][j + vlr];
-            } else {
-              curTile = 0;
-            }
-
-            if ((properties[curTile].value() & 1) == 0) {
-              dgGraphics.drawLine(
-                  j * width  * scale,
-                  i * height * scale + height * scale - 1,
-                  j * width  * scale + width  * scale - 1,
-                  i * height * scale + height * scale - 1);
-            }
-            if ((properties[curTile].value() & 2) == 0) {
-              dgGraphics.drawLine(
-                  j * width  * scale,
-                  i * height * scale,
-                  j * width  * scale,
-                  i * height * scale + height * scale - 1);
-            }
-            if ((properties[curTile].value() & 4) == 0) {
-              dgGraphics.drawLine(
-                  j * width  * scale + width  * scale - 1,
-                  i * height * scale,
-                  j * width  * scale + width  * scale - 1,
-                  i * height * scale + height * scale - 1);
-            }
-            if ((properties[curTile].value() & 8) == 0) {
-              dgGraphics.drawLine(
-                  j * width  * scale,
-                  i * height * scale,
-                  j * width  * scale + width  * scale - 1,
-                  i * height * scale);
-            }
-            if ((properties[curTile].value() & 16) != 0) {
-              dgGraphics.drawLine(
-                  j * width  * scale,
-                  i * height * scale,
-                  j * width  * scale + width * scale - 1,
-                  i * height * scale + height * scale - 1);
-            }
+    if (rgbPalette.getVersion() != drawnPaletteVersion) {
+      dosGraphics.updateClut();
+      drawnPaletteVersion = rgbPalette.getVersion();
+      invalidateLayers();
+    }
+
+    boolean rebuilt = false;
+
+    if (this.tiles != null) {
 
+      if (!backValid) {
+        for (int i = 0; i < numVerticalTiles; i++) {
+          for (int j = 0; j < numHorizontalTiles; j++) {
+            drawBackCell(i, j);
           }
         }
+        backValid = true;
+        rebuilt = true;
       }
 
-      dgGraphics.setColor(new java.awt.Color(dosGraphics.getPalettePacked()[10]));
+      if (!overValid) {
+        for (int i = 0; i < numVerticalTiles; i++) {
+          for (int j = 0; j < numHorizontalTiles; j++) {
+            drawOverCell(i, j);
+          }
+        }
+        overValid = true;
+        rebuilt = true;
+      }
 
-      if (dispOver) {
-        for (int i = 0; i < 12; i++) {
-          for (int j = 0; j < 20; j++) {
-            int curTile;
-            if (((vud + i) <= 127) && ((vud + i) >= 0) && ((vlr + j) <= 127)
-                && ((vlr + j) >= 0)) {
-              curTile = map.overMap[i + vud][j + vlr];
-            } else {
-              curTile = 0;
-            }
-            if ((properties[curTile].value() & 1) == 0) {
-              dgGraphics.drawLine(
-                  j * width  * scale,
-                  i * height * scale + height * scale - 1,
-                  j * width  * scale + width  * scale - 1,
-                  i * height * scale + height * scale - 1);
-            }
-            if ((properties[curTile].value() & 2) == 0) {
-              dgGraphics.drawLine(
-                  j * width  * scale,
-                  i * height * scale,
-                  j * width  * scale,
-                  i * height * scale + height * scale - 1);
-            }
-            if ((properties[curTile].value() & 4) == 0) {
-              dgGraphics.drawLine(
-                  j * width  * scale + width  * scale - 1,
-                  i * height * scale,
-                  j * width  * scale + width  * scale - 1,
-                  i * height * scale + height * scale - 1);
-            }
-            if ((properties[curTile].value() & 8) == 0) {
-              dgGraphics.drawLine(
-                  j * width  * scale,
-                  i * height * scale,
-                  j * width  * scale + width  * scale - 1,
-                  i * height * scale);
-            }
-            if ((properties[curTile].value() & 16) != 0) {
-              dgGraphics.drawLine(
-                  j * width  * scale,
-                  i * height * scale,
-                  j * width  * scale + width  * scale - 1,
-                  i * height * scale + height * scale - 1);
-            }
+      // bounds are only built when they are shown
+      if (dispBounds && !boundsValid) {
+        Graphics2D backGraphics = boundsGraphics(backBoundsImage, 255);
+        Graphics2D overGraphics = boundsGraphics(overBoundsImage, 10);
+        for (int i = 0; i < numVerticalTiles; i++) {
+          for (int j = 0; j < numHorizontalTiles; j++) {
+            drawBoundsCell(backGraphics, overGraphics, i, j);
+          }
+        }
+        backGraphics.dispose();
+        overGraphics.dispose();
+        boundsValid = true;
+        rebuilt = true;
+      }
+
+    }
+
+    updateComposite();
+
+    if (rebuilt) {
+      dosGraphics.repaint();
+    } else {
+      dosGraphics.repaintDirty();
+    }
+
+  }
+
+
+  /**
+   * Scroll the view by a number of tiles. The contents of the layers are
+   * shifted and only the newly exposed rows and columns of cells are drawn.
+   *
+   * @param dud     vertical scroll in tiles
+   * @param dlr     horizontal scroll in tiles
+   */
+  public void scroll(int dud, int dlr) {
+
+    vud += dud;
+    vlr += dlr;
+
+    if (!backValid || !overValid || this.tiles == null
+        || Math.abs(dud) >= numVerticalTiles || Math.abs(dlr) >= numHorizontalTiles) {
+      redraw();
+      return;
+    }
+
+    int bufferScale = dosGraphics.getBufferScale();
+
+    dosGraphics.shift(-dlr * width, -dud * height);
+    IndexedGraphics.shiftPixels(
+        overPixels, overImage.getWidth(), overImage.getHeight(),
+        -dlr * width * bufferScale, -dud * height * bufferScale);
+
+    // keep the bounds up to date only while they are shown
+    Graphics2D backGraphics = null;
+    Graphics2D overGraphics = null;
+    if (dispBounds && boundsValid) {
+      for (BufferedImage boundsImage : new BufferedImage[] {backBoundsImage, overBoundsImage}) {
+        IndexedGraphics.shiftPixels(
+            ((DataBufferInt) boundsImage.getRaster().getDataBuffer()).getData(),
+            boundsImage.getWidth(), boundsImage.getHeight(),
+            -dlr * width * scale, -dud * height * scale);
+      }
+      backGraphics = boundsGraphics(backBoundsImage, 255);
+      overGraphics = boundsGraphics(overBoundsImage, 10);
+    } else {
+      boundsValid = false;
+    }
+
+    // first and last (exclusive) rows and columns that remain from before
+    int keptRowStart = Math.max(0, -dud);
+    int keptRowEnd = Math.min(numVerticalTiles, numVerticalTiles - dud);
+    int keptColStart = Math.max(0, -dlr);
+    int keptColEnd = Math.min(numHorizontalTiles, numHorizontalTiles - dlr);
+
+    for (int i = 0; i < numVerticalTiles; i++) {
+      for (int j = 0; j < numHorizontalTiles; j++) {
+        if (i < keptRowStart || i >= keptRowEnd || j < keptColStart || j >= keptColEnd) {
+          drawBackCell(i, j);
+          drawOverCell(i, j);
+          if (backGraphics != null) {
+            drawBoundsCell(backGraphics, overGraphics, i, j);
           }
         }
       }
     }
 
+    if (backGraphics != null) {
+      backGraphics.dispose();
+      overGraphics.dispose();
+    }
+
+    repaint();
+
+  }
+
+
+  /**
+   * Redraw a single map cell after it has been edited, repainting only
+   * the region of the view that it covers.
+   *
+   * @param ud      vertical position in the map
+   * @param lr      horizontal position in the map
+   */
+  public void updateTile(int ud, int lr) {
+
+    int i = ud - vud;
+    int j = lr - vlr;
+
+    if (this.tiles == null || i < 0 || i >= numVerticalTiles || j < 0 || j >= numHorizontalTiles) {
+      return;
+    }
+
+    drawBackCell(i, j);
+    drawOverCell(i, j);
+
+    if (dispBounds && boundsValid) {
+      Graphics2D backGraphics = boundsGraphics(backBoundsImage, 255);
+      Graphics2D overGraphics = boundsGraphics(overBoundsImage, 10);
+      drawBoundsCell(backGraphics, overGraphics, i, j);
+      backGraphics.dispose();
+      overGraphics.dispose();
+    } else {
+      boundsValid = false;
+    }
+
+    dosGraphics.repaintDirty();
+
   }
 
   // ###--------Getters and setters---------------
 
   public void setMap(Map map) {
     this.map = map;
+    invalidateLayers();
   }
 
 
@@ -308,12 +554,22 @@ public class MapViewPanel extends JPanel {
     return this.scale;
   }
 
+  /**
+   * Change the display scale. Only the bounds are redrawn.
+   */
+  public void setScale(int scale) {
+    this.scale = scale;
+    dosGraphics.setScale(scale);
+    createBoundsImages();
+    repaint();
+  }
+
   public int getNumVerticalTiles() {
     return numVerticalTiles;
   }
 
   public void setNumVerticalTiles(int numVerticalTiles) {
-    this.numVerticalTiles = numVerticalTiles;
+    setViewSize(numVerticalTiles, this.numHorizontalTiles);
   }
 
   public int getNumHorizontalTiles() {
@@ -321,7 +577,7 @@ public class MapViewPanel extends JPanel {
   }
 
   public void setNumHorizontalTiles(int numHorizontalTiles) {
-    this.numHorizontalTiles = numHorizontalTiles;
+    setViewSize(this.numVerticalTiles, numHorizontalTiles);
   }
 
   public boolean isDispBack() {
@@ -330,10 +586,12 @@ public class MapViewPanel extends JPanel {
 
   public void setDispBack(boolean dispBack) {
     this.dispBack = dispBack;
+    updateComposite();
   }
 
   public void setDispOver(boolean dispOver) {
     this.dispOver = dispOver;
+    updateComposite();
   }
 
   public boolean isDispBounds() {
@@ -342,6 +600,7 @@ public class MapViewPanel extends JPanel {
 
   public void setDispBounds(boolean dispBounds) {
     this.dispBounds = dispBounds;
+    updateComposite();
   }
 
   public void setDispGridlines(boolean dispGridlines) {
@@ -359,6 +618,8 @@ public class MapViewPanel extends JPanel {
 
   public void setParallaxEdit(boolean parallaxEdit) {
     this.parallaxEdit = parallaxEdit;
+    this.backValid = false;
+    updateComposite();
   }
 
   public void setTiles(Tile[] tiles, TileProperties[] properties) {
@@ -366,6 +627,10 @@ public class MapViewPanel extends JPanel {
     this.properties = properties;
     this.width = tiles[0].bitmap()[0].length;
     this.height = tiles[0].bitmap().length;
+    if (dosGraphics != null) {
+      createTileCaches(dosGraphics);
+    }
+    invalidateLayers();
   }
 
   public IndexedGraphics getDosGraphics() {
@@ -7,6 +7,7 @@ package bdzimmer.pixeleditor.view;
 
 import bdzimmer.pixeleditor.controller.PaletteUtils;
 import bdzimmer.pixeleditor.model.Color;
+import bdzimmer.pixeleditor.model.SharedPalette;
 
 import java.awt.BorderLayout;
 import java.awt.Canvas;
@@ -41,6 +42,7 @@ public class PaletteWindow extends JFrame {
   private static final int swatchSize = 16;
   private static final int cols = 16;
 
+  private final SharedPalette sharedPalette;
   private final Color[] palette;
   private final Canvas cColorLabel;
   private final BufferedImage image;
@@ -62,9 +64,19 @@ public class PaletteWindow extends JFrame {
 		  Color[] palette,
 		  int bitsPerChannel,
 		  Updater updater) {
+    this(title, new SharedPalette(palette), bitsPerChannel, updater);
+  }
+
+
+  public PaletteWindow(
+      String title,
+      SharedPalette sharedPalette,
+      int bitsPerChannel,
+      Updater updater) {
 
     setTitle(title);
-    this.palette = palette;
+    this.sharedPalette = sharedPalette;
+    this.palette = sharedPalette.getColors();
     length = this.palette.length;
     this.updater = updater;
 
@@ -248,6 +260,7 @@ public class PaletteWindow extends JFrame {
 
 
   public void update() {
+    sharedPalette.modified();
     if (updater != null) {
       updater.update();
     }
@@ -275,6 +288,10 @@ public class PaletteWindow extends JFrame {
     return palette;
   }
 
+  public SharedPalette getSharedPalette() {
+    return sharedPalette;
+  }
+
   public int getBitsPerChannel() {
     return bitsPerChannel;
   }
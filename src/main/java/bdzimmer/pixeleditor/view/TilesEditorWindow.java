@@ -30,12 +30,15 @@ import javax.swing.event.ChangeListener;
 
 import bdzimmer.pixeleditor.model.IndexedGraphics;
 import bdzimmer.pixeleditor.model.Palette;
+import bdzimmer.pixeleditor.model.SharedPalette;
+import bdzimmer.pixeleditor.model.Tile;
 import bdzimmer.pixeleditor.model.TileContainer;
 import bdzimmer.pixeleditor.model.TileOptions;
 import bdzimmer.pixeleditor.model.Tileset;
 import bdzimmer.pixeleditor.model.TileAttributes;
 import bdzimmer.pixeleditor.model.Color;
 import bdzimmer.pixeleditor.view.DragDrop.TileExportTransferHandler;
+import bdzimmer.pixeleditor.controller.LazyTilesetLoader;
 import bdzimmer.pixeleditor.controller.OldTilesetLoader;
 import bdzimmer.pixeleditor.controller.TileUtil;
 
@@ -53,10 +56,15 @@ public class TilesEditorWindow extends CommonWindow {
   private String tileFilename;
 
   private IndexedGraphics dosGraphics;
+  private boolean tilesDirty = true;
+  // version of each tile as last drawn
+  private int[] drawnVersions = new int[0];
   private ZoomedTileWindow zoomWindow;
+  private int zoomedTile;
   private AnimationWindow animationWindow;
 
   private final PaletteWindow paletteWindow;
+  private final SharedPalette.Listener paletteListener;
   private final TileContainer tileContainer;
 
   // private int currentTile;
@@ -103,25 +111,49 @@ public class TilesEditorWindow extends CommonWindow {
       }
     });
 
+    // repaint when the palette is modified
+    paletteListener = new SharedPalette.Listener() {
+      public void paletteModified(SharedPalette palette) {
+        repaint();
+      }
+    };
+    paletteWindow.getSharedPalette().addListener(paletteListener);
+    addWindowListener(new WindowAdapter() {
+      public void windowClosed(WindowEvent event) {
+        TilesEditorWindow.this.paletteWindow.getSharedPalette().removeListener(paletteListener);
+      }
+    });
+
     packAndShow(false);
 
   }
 
 
   // create an appropriately sized and scaled DosGraphics for the tileset
+  // indexed, so that palette changes only require a repaint
   private IndexedGraphics createDosGraphics() {
     IndexedGraphics dg = new IndexedGraphics(
+        paletteWindow.getSharedPalette(),
+        6,
         (int)Math.ceil((float)tileset.tiles().length / tileset.tilesPerRow()) * tileset.height(),
         tileset.tilesPerRow() * tileset.width(),
-        this.scale);
+        this.scale,
+        true,
+        true);
 
     dg.setGridDimensions(tileset.width(), tileset.height());
-    dg.setPalette(paletteWindow.getPalette());
 
     return dg;
   }
 
 
+  // mark the tiles as modified and redraw
+  private void redrawTiles() {
+    tilesDirty = true;
+    repaint();
+  }
+
+
   private void handleClicks(MouseEvent event, boolean allowCopy) {
 
     int selectedTile =
@@ -156,11 +188,12 @@ public class TilesEditorWindow extends CommonWindow {
           tileset.tiles()[newTile].bitmap()[i][j] = tileContainer.getTileBitmap()[i][j];
         }
       }
+      tileset.tiles()[newTile].modified();
 
       // set the copy as the current tile
       tileContainer.setTileIndex(selectedTile);
       tileContainer.setTileBitmap(tileset.tiles()[selectedTile].bitmap());
-      repaint();
+      drawTile(newTile);
 
     }
 
@@ -169,6 +202,27 @@ public class TilesEditorWindow extends CommonWindow {
   }
 
 
+  // redraw a single tile, repainting only the region that it covers
+  private void drawTile(int tileIdx) {
+    renderTile(tileIdx);
+    dosGraphics.repaintDirty();
+  }
+
+
+  // draw a tile into the buffer and note the version drawn
+  private void renderTile(int tileIdx) {
+    Tile tile = tileset.tiles()[tileIdx];
+    TileUtil.drawTile(
+        dosGraphics,
+        tile.bitmap(),
+        (tileIdx % tileset.tilesPerRow()) * tileset.width(),
+        (tileIdx / tileset.tilesPerRow()) * tileset.height());
+    if (tileIdx < drawnVersions.length) {
+      drawnVersions[tileIdx] = tile.getVersion();
+    }
+  }
+
+
   // select a tile from the set into the tile container
   // and show it in the ZoomWindow
   public void selectTile(int selectedIdx) {
@@ -178,6 +232,7 @@ public class TilesEditorWindow extends CommonWindow {
     tileContainer.setTileBitmap(tileset.tiles()[selectedIdx].bitmap());
 
     // show in zoom window
+    zoomedTile = selectedIdx;
     // TODO: why this type safety warning?
     Container<Integer> dummyContainer = new SimpleContainer<Integer>(0);
 
@@ -188,7 +243,12 @@ public class TilesEditorWindow extends CommonWindow {
           dummyContainer,
           256,
           paletteWindow);
-      zoomWindow.setUpdater(new DumbUpdater(this));
+      zoomWindow.setUpdater(new Updater() {
+        public void update() {
+          tileset.tiles()[zoomedTile].modified();
+          repaint();
+        }
+      });
       zoomWindow.setLocationRelativeTo(this);
     } else {
       zoomWindow.setTile(
@@ -230,6 +290,7 @@ public class TilesEditorWindow extends CommonWindow {
           }
         }
       }
+      tileset.tiles()[i].modified();
     }
 
   }
@@ -249,6 +310,7 @@ public class TilesEditorWindow extends CommonWindow {
           }
         }
       }
+      tileset.tiles()[i].modified();
     }
   }
 
@@ -267,7 +329,7 @@ public class TilesEditorWindow extends CommonWindow {
     panel.add(dosGraphics);
 
     pack();
-    repaint();
+    redrawTiles();
 
   }
 
@@ -314,12 +376,13 @@ public class TilesEditorWindow extends CommonWindow {
 
   // load the tileset and update the palette
   private void loadTileset(String filename) {
-    tileset = new OldTilesetLoader(filename, attrs).load();
+    tileset = new LazyTilesetLoader(filename, attrs).load();
     Tileset.modPalette(tileset.palettes().apply(0), dosGraphics.getPalette());
+    paletteWindow.getSharedPalette().modified();
     tileFilename = filename;
     paletteWindow.repaint();
     updateTitle();
-    repaint();
+    redrawTiles();
   }
 
 
@@ -333,6 +396,7 @@ public class TilesEditorWindow extends CommonWindow {
       pal.colors()[i] = newPal.colors()[i];
     }
     new OldTilesetLoader(filename, attrs).save(tileset);
+    LazyTilesetLoader.invalidate(filename);
 
     tileFilename = filename;
     updateTitle();
@@ -348,9 +412,33 @@ public class TilesEditorWindow extends CommonWindow {
   public void paint(Graphics graphics) {
     super.paint(graphics);
 
+    // the tiles only need to be redrawn when they change; palette
+    // changes are handled by the color model
     dosGraphics.updateClut();
-    TileUtil.drawTileset(dosGraphics, tileset);
-    dosGraphics.repaint();
+    Tile[] tiles = tileset.tiles();
+    if (tilesDirty || drawnVersions.length != tiles.length) {
+      TileUtil.drawTileset(dosGraphics, tileset);
+      drawnVersions = new int[tiles.length];
+      for (int i = 0; i < tiles.length; i++) {
+        drawnVersions[i] = tiles[i].getVersion();
+      }
+      tilesDirty = false;
+      dosGraphics.repaintDirty();
+    } else {
+      // redraw tiles modified by other windows
+      boolean changed = false;
+      for (int i = 0; i < tiles.length; i++) {
+        if (tiles[i].getVersion() != drawnVersions[i]) {
+          renderTile(i);
+          changed = true;
+        }
+      }
+      if (changed) {
+        dosGraphics.repaintDirty();
+      } else {
+        dosGraphics.repaint();
+      }
+    }
 
   }
 
@@ -407,14 +495,14 @@ public class TilesEditorWindow extends CommonWindow {
     jmSwap.addActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent event) {
         swapTransparency();
-        repaint();
+        redrawTiles();
       }
     });
 
     jmBlacken.addActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent event) {
         blacken();
-        repaint();
+        redrawTiles();
       }
     });
 
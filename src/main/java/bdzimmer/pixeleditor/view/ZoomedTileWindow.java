@@ -432,6 +432,10 @@ public class ZoomedTileWindow extends JFrame {
         	  System.out.println("updating palette offset to " + newPalOffset);
         	  palOffset.set(newPalOffset);
         	  TileUtil.reIndex(tile, paletteSize);
+          } else if (penMode == 0 || penMode == 1) {
+            // only a single pixel changed
+            drawPixel(tud, tlr);
+            return;
           }
 
         } else {
@@ -448,6 +452,24 @@ public class ZoomedTileWindow extends JFrame {
   }
 
 
+  // redraw a single pixel of the tile, repainting only the regions it covers
+  private void drawPixel(int ud, int lr) {
+    int colorIdx = tile[ud][lr] + palOffset.get();
+
+    dosGraphics.setPixel(ud, lr, colorIdx);
+    dosGraphics.repaintDirty();
+
+    if (this.tileHeight == 16) {
+      for (int i = 0; i < 3; i++) {
+        for (int j = 0; j < 3; j++) {
+          tileTile.setPixel(i * this.tileHeight + ud, j * this.tileWidth + lr, colorIdx);
+        }
+      }
+      tileTile.repaintDirty();
+    }
+  }
+
+
   public void setTile(
       int[][] tile,
       Container<Integer> palOffset,
@@ -569,7 +591,7 @@ public class ZoomedTileWindow extends JFrame {
     // draw the main zoomed tile
     dosGraphics.updateClut();
     TileUtil.drawTile(dosGraphics, tile, 0, 0, palOffset.get());
-    dosGraphics.repaint();
+    dosGraphics.repaintDirty();
 
     // Draw the repeated tile for tiling purposes
     tileTile.updateClut();
@@ -584,7 +606,7 @@ public class ZoomedTileWindow extends JFrame {
         }
       }
     }
-    tileTile.repaint();
+    tileTile.repaintDirty();
 
     // draw the tileprops.
     // this.updateTileProps();
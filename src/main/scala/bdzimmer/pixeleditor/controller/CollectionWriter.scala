@@ -0,0 +1,267 @@
+// Copyright (c) 2016 Ben Zimmer. All rights reserved.
+
+// Saves a TileCollection incrementally. The writer remembers what it last
+// wrote record by record: the version of each tile (editors call
+// Tile.modified after changing a bitmap), each vmap entry (entries are
+// immutable, so a changed entry is a new object), and the settings, vmap
+// names and palette confs, and palette chunks. Changed tiles and entries are
+// encoded on their own and written in place in the fixed-stride pixels.bin
+// and vmaps.bin. Anything else that changed is written in full.
+
+// A file is only patched if its length, modification time, and header on
+// disk are as last written, so that a file replaced elsewhere is written in
+// full. An edit made elsewhere that keeps all three is not detected.
+
+package bdzimmer.pixeleditor.controller
+
+import java.io.{File, IOException, RandomAccessFile}
+import java.nio.file.Files
+
+import scala.collection.mutable.{Buffer, HashMap => MutableMap}
+
+import bdzimmer.pixeleditor.model.{Color, Tile}
+import bdzimmer.pixeleditor.model.TileCollectionModel._
+
+
+class CollectionWriter(val file: File) {
+
+  import CollectionWriter._
+
+  val tcf = IO.TileCollectionFiles(file.getAbsolutePath)
+
+  // length, modification time, and header of each file as last written
+  private val stamps = new MutableMap[File, (Long, Long, Array[Byte])]()
+
+  // what was last written to each file; null if it must be written in full
+  private var settingsWritten: Settings = null
+  private var pixelsWritten: PixelsWritten = null
+  private var vMapsWritten: VMapsWritten = null
+  private var chunksWritten: Buffer[Named[Array[Color]]] = null
+
+
+  def write(tileCollection: TileCollection): Unit = {
+
+    file.mkdirs()
+
+    writeSettings(tileCollection.settings)
+    writePixels(tileCollection.pixels, tileCollection.settings)
+    writeVMaps(tileCollection.vmaps)
+    writePaletteChunks(tileCollection.paletteChunks)
+
+  }
+
+
+  private def writeSettings(settings: Settings): Unit = {
+    val prev = settingsWritten
+    settingsWritten = null
+    if (prev != settings || !current(tcf.settingsFile)) {
+      writeFull(tcf.settingsFile, IO.settingsBytes(settings))
+    }
+    settingsWritten = settings
+  }
+
+
+  private def writePixels(pixels: Pixels, settings: Settings): Unit = {
+
+    val prev = pixelsWritten
+    pixelsWritten = null
+
+    val patched = prev != null &&
+        prev.tileWidth == settings.tileWidth && prev.tileHeight == settings.tileHeight &&
+        prev.tiles.length == pixels.tiles.length &&
+        current(tcf.pixelsBinFile) &&
+        patchPixels(prev, pixels)
+
+    val bitsPerPixel = if (patched) {
+      prev.bitsPerPixel
+    } else {
+      val bytes = IO.pixelsBinaryBytes(pixels, settings)
+      writeFull(tcf.pixelsBinFile, bytes)
+      bytes(IO.PixelsMagic.length + 1).toInt
+    }
+
+    pixelsWritten = PixelsWritten(
+        bitsPerPixel, settings.tileWidth, settings.tileHeight,
+        pixels.tiles.clone,
+        pixels.tiles.map(_.getVersion),
+        pixels.defaultPalOffsets.map(_.intValue))
+
+  }
+
+
+  // write the tiles and default palette offsets that changed, if the tiles
+  // still fit the width the file was packed at
+  private def patchPixels(prev: PixelsWritten, pixels: Pixels): Boolean = {
+
+    val count = pixels.tiles.length
+    val changedTiles = (0 until count).filter(i => {
+      (pixels.tiles(i) ne prev.tiles(i)) || pixels.tiles(i).getVersion != prev.versions(i)
+    })
+    if (!changedTiles.forall(i => IO.tileFits(pixels.tiles(i), prev.bitsPerPixel))) {
+      return false
+    }
+    val changedOffsets = (0 until count).filter(i => {
+      pixels.defaultPalOffsets(i).intValue != prev.offsets(i)
+    })
+
+    if (changedTiles.nonEmpty || changedOffsets.nonEmpty) {
+      val tileBytes = IO.pixelsTileBytes(prev.bitsPerPixel, prev.tileWidth, prev.tileHeight)
+      val packed = new Array[Byte](tileBytes)
+      patch(tcf.pixelsBinFile)(raf => {
+        changedTiles.foreach(i => {
+          java.util.Arrays.fill(packed, 0.toByte)
+          IO.packTile(
+              pixels.tiles(i).bitmap, prev.bitsPerPixel, prev.tileWidth, prev.tileHeight, packed, 0)
+          raf.seek(IO.PixelsHeaderSize + i.toLong * tileBytes)
+          raf.write(packed)
+        })
+        changedOffsets.foreach(i => {
+          raf.seek(IO.PixelsHeaderSize + count.toLong * tileBytes + i * 4L)
+          raf.writeInt(pixels.defaultPalOffsets(i))
+        })
+      })
+    }
+
+    true
+
+  }
+
+
+  private def writeVMaps(vMaps: Buffer[Named[VMap]]): Unit = {
+
+    val prev = vMapsWritten
+    vMapsWritten = null
+
+    val patched = prev != null &&
+        prev.names == vMaps.map(_.name) &&
+        prev.palConfs == vMaps.map(_.value.palConfs) &&
+        prev.entries.map(_.length) == vMaps.map(_.value.entries.length) &&
+        current(tcf.vMapsBinFile)
+
+    if (patched) {
+      patchVMaps(prev, vMaps)
+    } else {
+      writeFull(tcf.vMapsBinFile, IO.vMapsBinaryBytes(vMaps))
+    }
+
+    vMapsWritten = VMapsWritten(
+        vMaps.map(_.name),
+        vMaps.map(_.value.palConfs.map(conf => Named(conf.name, PaletteConf(conf.value.chunkIdxs.clone)))),
+        vMaps.map(_.value.entries.clone),
+        if (patched) prev.offsets else IO.vMapsEntryOffsets(vMaps))
+
+  }
+
+
+  // write the columns of the entries that changed
+  private def patchVMaps(prev: VMapsWritten, vMaps: Buffer[Named[VMap]]): Unit = {
+
+    val changed = vMaps.indices.map(i => {
+      val entries = vMaps(i).value.entries
+      (i, entries.indices.filter(j => entries(j) ne prev.entries(i)(j)))
+    }).filter(_._2.nonEmpty)
+
+    if (changed.nonEmpty) {
+      patch(tcf.vMapsBinFile)(raf => {
+        changed.foreach({case (i, changedEntries) => {
+          val entries = vMaps(i).value.entries
+          val offset = prev.offsets(i).toLong
+          changedEntries.foreach(j => {
+            val entry = entries(j)
+            raf.seek(offset + j * 4L)
+            raf.writeInt(entry.pixelsIdx)
+            raf.seek(offset + entries.length * 4L + j * 4L)
+            raf.writeInt(entry.palOffset)
+            raf.seek(offset + entries.length * 8L + j)
+            raf.writeByte(IO.vMapEntryFlags(entry))
+          })
+        }})
+      })
+    }
+
+  }
+
+
+  private def writePaletteChunks(chunks: Buffer[Named[Array[Color]]]): Unit = {
+
+    val prev = chunksWritten
+    chunksWritten = null
+
+    val unchanged = prev != null &&
+        prev.length == chunks.length &&
+        prev.zip(chunks).forall({case (x, y) => x.name == y.name && x.value.sameElements(y.value)})
+
+    if (!unchanged || !current(tcf.paletteChunksFile)) {
+      writeFull(tcf.paletteChunksFile, IO.paletteChunksBytes(chunks))
+    }
+
+    chunksWritten = chunks.map(chunk => Named(chunk.name, chunk.value.clone))
+
+  }
+
+
+  private def writeFull(outFile: File, bytes: Array[Byte]): Unit = {
+    stamps.remove(outFile)
+    Files.write(outFile.toPath, bytes)
+    stamps(outFile) = (
+        outFile.length, outFile.lastModified,
+        java.util.Arrays.copyOf(bytes, math.min(bytes.length, StampHeaderSize)))
+  }
+
+
+  // write parts of a file that is current; the header is never patched
+  private def patch(outFile: File)(write: RandomAccessFile => Unit): Unit = {
+    val header = stamps.remove(outFile).get._3
+    val raf = new RandomAccessFile(outFile, "rw")
+    try {
+      write(raf)
+    } finally {
+      raf.close()
+    }
+    stamps(outFile) = (outFile.length, outFile.lastModified, header)
+  }
+
+
+  // whether a file is as last written, as far as can be told cheaply
+  private def current(outFile: File): Boolean = {
+    stamps.get(outFile).exists({case (length, modified, header) => {
+      outFile.length == length && outFile.lastModified == modified && (try {
+        val raf = new RandomAccessFile(outFile, "r")
+        try {
+          val onDisk = new Array[Byte](header.length)
+          raf.readFully(onDisk)
+          onDisk.sameElements(header)
+        } finally {
+          raf.close()
+        }
+      } catch {
+        case e: IOException => false
+      })
+    }})
+  }
+
+}
+
+
+
+object CollectionWriter {
+
+  // bytes at the start of each file compared before patching; no longer than
+  // the pixels header, so that patches never change them
+  val StampHeaderSize = IO.PixelsHeaderSize
+
+  private case class PixelsWritten(
+      bitsPerPixel: Int,
+      tileWidth: Int,
+      tileHeight: Int,
+      tiles: Array[Tile],
+      versions: Array[Int],
+      offsets: Array[Int])
+
+  private case class VMapsWritten(
+      names: Buffer[String],
+      palConfs: Buffer[Buffer[Named[PaletteConf]]],
+      entries: Buffer[Array[VMapEntry]],
+      offsets: Array[Int])
+
+}
@@ -3,9 +3,9 @@
 package bdzimmer.pixeleditor.controller
 
 import scala.collection.mutable.Buffer
-import scala.util.Try
 
-import java.io.{File, FileReader, FileWriter, BufferedReader, BufferedWriter}
+import java.io.{File, FileReader, StringWriter, BufferedReader, BufferedWriter, IOException}
+import java.nio.file.Files
 
 import javax.xml.bind.DatatypeConverter
 import java.nio.{ByteBuffer, ByteOrder}
@@ -18,12 +18,31 @@ import bdzimmer.util.StringUtils._
 
 object IO {
 
-  val Trimmer = """^(.*?)\s*$""".r
+  val DefaultSettings = Settings(
+      bitsPerChannel  = 5,
+      paletteSize     = 256,
+      colorsPerTile   = 16,
+      tileWidth       = 16,
+      tileHeight      = 16,
+      vMapSize        = 256,
+      viewPaletteCols = 16,
+      viewTileCols    = 16)
+
+  // header of binary pixels files
+  val PixelsMagic = "PXLS".getBytes("US-ASCII")
+  val PixelsVersion = 1
+  val PixelsHeaderSize = 14
+
+  // header of binary vmaps files
+  val VMapsMagic = "VMPS".getBytes("US-ASCII")
+  val VMapsVersion = 1
 
   case class TileCollectionFiles(filename: String) {
     val settingsFile      = new File(filename / "settings")
     val pixelsFile        = new File(filename / "pixels")
+    val pixelsBinFile     = new File(filename / "pixels.bin")
     val vMapsFile         = new File(filename / "vmaps")
+    val vMapsBinFile      = new File(filename / "vmaps.bin")
     val paletteChunksFile = new File(filename / "palettechunks")
   }
 
@@ -33,8 +52,16 @@ object IO {
     val tcf = TileCollectionFiles(file.getAbsolutePath)
 
     val settings = IO.readSettings(tcf.settingsFile)
-    val pixels = IO.readPixels(tcf.pixelsFile, settings)
-    val vMaps = IO.readVMaps(tcf.vMapsFile, settings)
+    val pixels = if (tcf.pixelsBinFile.exists) {
+      IO.readPixelsBinary(tcf.pixelsBinFile)
+    } else {
+      IO.readPixels(tcf.pixelsFile, settings)
+    }
+    val vMaps = if (tcf.vMapsBinFile.exists) {
+      IO.readVMapsBinary(tcf.vMapsBinFile)
+    } else {
+      IO.readVMaps(tcf.vMapsFile, settings)
+    }
     val paletteChunks = IO.readPaletteChunks(tcf.paletteChunksFile)
 
     new TileCollection(
@@ -47,14 +74,26 @@ object IO {
   }
 
 
-  def writeCollection(file: File, tileCollection: TileCollection): Unit = {
+  // text writes pixels and vmaps in the older text formats, removing any
+  // binary files, which would otherwise be read in their place; a binary
+  // write leaves text files for older builds and other tools
+  def writeCollection(file: File, tileCollection: TileCollection, text: Boolean = false): Unit = {
 
     val tcf = TileCollectionFiles(file.getAbsolutePath)
     file.mkdirs()
 
     IO.writeSettings(tcf.settingsFile, tileCollection.settings)
-    IO.writePixels(tcf.pixelsFile, tileCollection.pixels, tileCollection.settings)
-    IO.writeVMaps(tcf.vMapsFile, tileCollection.vmaps, tileCollection.settings)
+
+    if (text) {
+      IO.writePixels(tcf.pixelsFile, tileCollection.pixels, tileCollection.settings)
+      IO.writeVMaps(tcf.vMapsFile, tileCollection.vmaps, tileCollection.settings)
+      tcf.pixelsBinFile.delete()
+      tcf.vMapsBinFile.delete()
+    } else {
+      IO.writePixelsBinary(tcf.pixelsBinFile, tileCollection.pixels, tileCollection.settings)
+      IO.writeVMapsBinary(tcf.vMapsBinFile, tileCollection.vmaps)
+    }
+
     IO.writePaletteChunks(tcf.paletteChunksFile, tileCollection.paletteChunks)
   }
 
@@ -67,25 +106,33 @@ object IO {
   def readSettings(file: File): Settings = {
 
     val br = new BufferedReader(new FileReader(file))
-    val sm = readMap(br)
+    val d = DefaultSettings
+    var settings = d
+
+    scanMap(br)((key, value) => key match {
+      case "bitsPerChannel"  => settings = settings.copy(bitsPerChannel  = parseInt(value, d.bitsPerChannel))
+      case "paletteSize"     => settings = settings.copy(paletteSize     = parseInt(value, d.paletteSize))
+      case "colorsPerTile"   => settings = settings.copy(colorsPerTile   = parseInt(value, d.colorsPerTile))
+      case "tileWidth"       => settings = settings.copy(tileWidth       = parseInt(value, d.tileWidth))
+      case "tileHeight"      => settings = settings.copy(tileHeight      = parseInt(value, d.tileHeight))
+      case "vMapSize"        => settings = settings.copy(vMapSize        = parseInt(value, d.vMapSize))
+      case "viewPaletteCols" => settings = settings.copy(viewPaletteCols = parseInt(value, d.viewPaletteCols))
+      case "viewTileCols"    => settings = settings.copy(viewTileCols    = parseInt(value, d.viewTileCols))
+      case _ => ()
+    })
+
     br.close()
 
-    Settings(
-      bitsPerChannel  = getSetting(sm, "bitsPerChannel", 5),
-      paletteSize     = getSetting(sm, "paletteSize", 256),
-      colorsPerTile   = getSetting(sm, "colorsPerTile", 16),
-      tileWidth       = getSetting(sm, "tileWidth", 16),
-      tileHeight      = getSetting(sm, "tileHeight", 16),
-      vMapSize        = getSetting(sm, "vMapSize", 256),
-      viewPaletteCols = getSetting(sm, "viewPaletteCols", 16),
-      viewTileCols    = getSetting(sm, "viewTileCols", 16)
-    )
+    settings
   }
 
 
   def writeSettings(file: File, settings: Settings): Unit = {
+    Files.write(file.toPath, settingsBytes(settings))
+  }
+
 
-     val bw = new BufferedWriter(new FileWriter(file))
+  def settingsBytes(settings: Settings): Array[Byte] = textBytes(bw => {
 
      val sm = Map(
       "bitsPerChannel"  -> settings.bitsPerChannel.toString,
@@ -100,15 +147,13 @@ object IO {
 
      writeMap(bw, sm)
 
-     bw.close()
-  }
+  })
 
 
   def readPaletteChunks(file: File): Buffer[Named[Array[Color]]] = {
 
     val br = new BufferedReader(new FileReader(file))
-    val sm = readMap(br)
-    val count = getSetting(sm, "count", 0)
+    val count = readCount(br)
     val chunks = (0 until count).map(i => {
       val name = br.readLine()
       val pal = base64ToInt(br.readLine())
@@ -121,8 +166,11 @@ object IO {
 
 
   def writePaletteChunks(file: File, chunks: Buffer[Named[Array[Color]]]): Unit = {
+    Files.write(file.toPath, paletteChunksBytes(chunks))
+  }
+
 
-    val bw = new BufferedWriter(new FileWriter(file))
+  def paletteChunksBytes(chunks: Buffer[Named[Array[Color]]]): Array[Byte] = textBytes(bw => {
 
     writeMap(bw, Map("count" -> chunks.length.toString))
     chunks.foreach(chunk => {
@@ -133,22 +181,20 @@ object IO {
       bw.newLine()
     })
 
-    bw.close()
-  }
+  })
 
 
   def readPixels(file: File, settings: Settings): Pixels = {
 
     val br = new BufferedReader(new FileReader(file))
 
-    val sm = readMap(br)
-    val count = getSetting(sm, "count", 0)
+    val count = readCount(br)
     val tiles = (0 until count).map(i => {
       val line = br.readLine()
       IO.base64ToTile(line, settings.tileWidth, settings.tileHeight)
     }).toArray
     val defaultPalOffsets = (0 until count).map(i => {
-      new Integer(br.readLine().toIntSafe(0))
+      Integer.valueOf(parseInt(br.readLine(), 0))
     }).toArray
 
     br.close()
@@ -159,8 +205,11 @@ object IO {
 
 
   def writePixels(file: File, pixels: Pixels, settings: Settings): Unit = {
+    Files.write(file.toPath, pixelsBytes(pixels, settings))
+  }
+
 
-    val bw = new BufferedWriter(new FileWriter(file))
+  def pixelsBytes(pixels: Pixels, settings: Settings): Array[Byte] = textBytes(bw => {
 
     writeMap(bw, Map("count" -> pixels.tiles.length.toString))
     pixels.tiles.foreach(tile => {
@@ -172,14 +221,182 @@ object IO {
       bw.newLine()
     })
 
-    bw.close()
+  })
+
+
+  // binary pixels file: header of magic, version, bits per pixel, tile width,
+  // tile height, and count; then tile bitmaps packed at 4, 8, or 32 bits per
+  // pixel, high nibble first; then default palette offsets as ints.
+
+  def readPixelsBinary(file: File): Pixels = {
+
+    val bb = ByteBuffer.wrap(Files.readAllBytes(file.toPath))
+
+    val magic = new Array[Byte](PixelsMagic.length)
+    bb.get(magic)
+    val version = bb.get()
+    if (!magic.sameElements(PixelsMagic) || version != PixelsVersion) {
+      throw new IOException("not a version " + PixelsVersion + " pixels file: " + file.getPath)
+    }
+
+    val bitsPerPixel = bb.get().toInt
+    val tileWidth = bb.getShort().toInt
+    val tileHeight = bb.getShort().toInt
+    val count = bb.getInt()
+
+    val tileSize = tileWidth * tileHeight
+    val tiles = (0 until count).map(i => {
+      val tile = Tileset.emptyTile(tileWidth, tileHeight)
+      bitsPerPixel match {
+        case 4 => {
+          val packed = new Array[Byte]((tileSize + 1) / 2)
+          bb.get(packed)
+          for (row <- 0 until tileHeight) {
+            val bitmapRow = tile.bitmap(row)
+            for (col <- 0 until tileWidth) {
+              val idx = row * tileWidth + col
+              bitmapRow(col) = (packed(idx >> 1) >> (if ((idx & 1) == 0) 4 else 0)) & 0x0F
+            }
+          }
+        }
+        case 8 => {
+          for (row <- 0 until tileHeight) {
+            val bitmapRow = tile.bitmap(row)
+            for (col <- 0 until tileWidth) {
+              bitmapRow(col) = bb.get() & 0xFF
+            }
+          }
+        }
+        case _ => {
+          for (row <- 0 until tileHeight) {
+            bb.asIntBuffer.get(tile.bitmap(row))
+            bb.position(bb.position() + tileWidth * 4)
+          }
+        }
+      }
+      tile
+    }).toArray
+
+    val defaultPalOffsets = (0 until count).map(i => Integer.valueOf(bb.getInt())).toArray
+
+    Pixels(tiles, defaultPalOffsets)
+
+  }
+
+
+  def writePixelsBinary(file: File, pixels: Pixels, settings: Settings): Unit = {
+    Files.write(file.toPath, pixelsBinaryBytes(pixels, settings))
+  }
+
+
+  def pixelsBinaryBytes(pixels: Pixels, settings: Settings): Array[Byte] = {
+
+    val tileWidth = settings.tileWidth
+    val tileHeight = settings.tileHeight
+    val count = pixels.tiles.length
+
+    val bitsPerPixel = pixelsBitsPerPixel(pixels.tiles, settings.colorsPerTile)
+    val tileBytes = pixelsTileBytes(bitsPerPixel, tileWidth, tileHeight)
+
+    val bb = ByteBuffer.allocate(PixelsHeaderSize + count * tileBytes + count * 4)
+    bb.put(PixelsMagic)
+    bb.put(PixelsVersion.toByte)
+    bb.put(bitsPerPixel.toByte)
+    bb.putShort(tileWidth.toShort)
+    bb.putShort(tileHeight.toShort)
+    bb.putInt(count)
+
+    // pack directly into the backing array
+    for (i <- 0 until count) {
+      packTile(
+          pixels.tiles(i).bitmap, bitsPerPixel, tileWidth, tileHeight,
+          bb.array, PixelsHeaderSize + i * tileBytes)
+    }
+    bb.position(PixelsHeaderSize + count * tileBytes)
+
+    pixels.defaultPalOffsets.foreach(offset => bb.putInt(offset))
+
+    bb.array
+
+  }
+
+
+  // pack according to colors per tile, widening if the data doesn't fit
+  def pixelsBitsPerPixel(tiles: Array[Tile], colorsPerTile: Int): Int = {
+
+    var minValue = 0
+    var maxValue = 0
+    tiles.foreach(_.bitmap.foreach(row => {
+      var col = 0
+      while (col < row.length) {
+        minValue = math.min(minValue, row(col))
+        maxValue = math.max(maxValue, row(col))
+        col += 1
+      }
+    }))
+
+    if (minValue < 0 || maxValue > 255) {
+      32
+    } else if (colorsPerTile <= 16 && maxValue < 16) {
+      4
+    } else {
+      8
+    }
+
+  }
+
+
+  // whether a tile can be packed at a width chosen for other tiles
+  def tileFits(tile: Tile, bitsPerPixel: Int): Boolean = bitsPerPixel match {
+    case 4 => tile.bitmap.forall(_.forall(x => x >= 0 && x < 16))
+    case 8 => tile.bitmap.forall(_.forall(x => x >= 0 && x < 256))
+    case _ => true
+  }
+
+
+  def pixelsTileBytes(bitsPerPixel: Int, tileWidth: Int, tileHeight: Int): Int = {
+    val tileSize = tileWidth * tileHeight
+    bitsPerPixel match {
+      case 4 => (tileSize + 1) / 2
+      case 8 => tileSize
+      case _ => tileSize * 4
+    }
+  }
+
+
+  // pack a tile bitmap into zeroed bytes at an offset
+  def packTile(
+      bitmap: Array[Array[Int]], bitsPerPixel: Int, tileWidth: Int, tileHeight: Int,
+      bytes: Array[Byte], tileStart: Int): Unit = {
+
+    for (row <- 0 until tileHeight) {
+      val bitmapRow = bitmap(row)
+      var idx = row * tileWidth
+      var col = 0
+      bitsPerPixel match {
+        case 4 => while (col < tileWidth) {
+          val shift = if ((idx & 1) == 0) 4 else 0
+          bytes(tileStart + (idx >> 1)) = (bytes(tileStart + (idx >> 1)) | (bitmapRow(col) << shift)).toByte
+          idx += 1
+          col += 1
+        }
+        case 8 => while (col < tileWidth) {
+          bytes(tileStart + idx) = bitmapRow(col).toByte
+          idx += 1
+          col += 1
+        }
+        case _ => {
+          ByteBuffer.wrap(bytes, tileStart + idx * 4, tileWidth * 4).asIntBuffer.put(bitmapRow, 0, tileWidth)
+        }
+      }
+    }
 
   }
 
 
   def readVMaps(file: File, settings: Settings): Buffer[Named[VMap]] = {
     val br = new BufferedReader(new FileReader(file))
-    val count = getSetting(readMap(br), "count", 0)
+    val count = readCount(br)
     val vmaps = (0 until count).map(i => {
       val name = br.readLine()
       val vmap = readVMap(br, settings.vMapSize)
@@ -197,22 +414,31 @@ object IO {
 
   def readVMap(br: BufferedReader, vMapSize: Int): VMap = {
 
-    val countConfs = getSetting(readMap(br), "count", 0)
+    val countConfs = readCount(br)
     val confs = (0 until countConfs).map(i => {
       val name = br.readLine()
-      val chunkIdxs = br.readLine().split(", ").map(_.toIntSafe(0)).toBuffer
+      val chunkIdxs = br.readLine().split(", ").map(parseInt(_, 0)).toBuffer
       PaletteConf(chunkIdxs) named name
     }).toBuffer
 
+    // The count written before the entries is skipped. Text vmaps loaded
+    // before this skip was added read it as the first entry, so every entry
+    // was shifted down by one and the last was dropped.
+    readCount(br)
+
     val entries = (0 until vMapSize).map(i => {
-      val sm = readMap(br)
-      VMapEntry(
-        pixelsIdx = getSetting(sm, "pixelsIdx", 0),
-        palOffset = getSetting(sm, "palOffset", 0),
-        flipX     = sm.getOrElse("flipX", "false").equals("true"),
-        flipY     = sm.getOrElse("flipY", "false").equals("true"),
-        attribs   = TileProperties(0)
-      )
+      var pixelsIdx = 0
+      var palOffset = 0
+      var flipX = false
+      var flipY = false
+      scanMap(br)((key, value) => key match {
+        case "pixelsIdx" => pixelsIdx = parseInt(value, 0)
+        case "palOffset" => palOffset = parseInt(value, 0)
+        case "flipX"     => flipX = value.equals("true")
+        case "flipY"     => flipY = value.equals("true")
+        case _ => ()
+      })
+      VMapEntry(pixelsIdx, palOffset, flipX, flipY, TileProperties(0))
     }).toArray
 
     VMap(confs, entries)
@@ -221,15 +447,18 @@ object IO {
 
 
   def writeVMaps(file: File, vMaps: Buffer[Named[VMap]], settings: Settings): Unit = {
-    val bw = new BufferedWriter(new FileWriter(file))
+    Files.write(file.toPath, vMapsBytes(vMaps, settings))
+  }
+
+
+  def vMapsBytes(vMaps: Buffer[Named[VMap]], settings: Settings): Array[Byte] = textBytes(bw => {
     writeMap(bw, Map("count" -> vMaps.length.toString))
     for (vmap <- vMaps) {
       bw.write(vmap.name)
       bw.newLine()
       writeVMap(bw, vmap.value)
     }
-    bw.close()
-  }
+  })
 
 
   def writeVMap(bw: BufferedWriter, vmap: VMap): Unit = {
@@ -253,43 +482,237 @@ object IO {
   }
 
 
+  // binary vmaps file: header of magic, version, and count; then for each
+  // vmap its name, palette confs, and entries stored as columns of pixelsIdx,
+  // palOffset, and a flag byte (bit 0 flipX, bit 1 flipY). Strings are an
+  // int length followed by UTF-8 bytes.
+
+  def readVMapsBinary(file: File): Buffer[Named[VMap]] = {
+
+    val bb = ByteBuffer.wrap(Files.readAllBytes(file.toPath))
+
+    val magic = new Array[Byte](VMapsMagic.length)
+    bb.get(magic)
+    val version = bb.get()
+    if (!magic.sameElements(VMapsMagic) || version != VMapsVersion) {
+      throw new IOException("not a version " + VMapsVersion + " vmaps file: " + file.getPath)
+    }
+
+    val count = bb.getInt()
+    (0 until count).map(i => {
+
+      val name = getString(bb)
+
+      val countConfs = bb.getInt()
+      val confs = (0 until countConfs).map(j => {
+        val confName = getString(bb)
+        val chunkIdxs = new Array[Int](bb.getInt())
+        bb.asIntBuffer.get(chunkIdxs)
+        bb.position(bb.position() + chunkIdxs.length * 4)
+        PaletteConf(chunkIdxs.toBuffer) named confName
+      }).toBuffer
+
+      val countEntries = bb.getInt()
+      val pixelsIdxs = new Array[Int](countEntries)
+      val palOffsets = new Array[Int](countEntries)
+      val flags = new Array[Byte](countEntries)
+      bb.asIntBuffer.get(pixelsIdxs)
+      bb.position(bb.position() + countEntries * 4)
+      bb.asIntBuffer.get(palOffsets)
+      bb.position(bb.position() + countEntries * 4)
+      bb.get(flags)
+
+      val entries = (0 until countEntries).map(j => VMapEntry(
+        pixelsIdx = pixelsIdxs(j),
+        palOffset = palOffsets(j),
+        flipX     = (flags(j) & 1) != 0,
+        flipY     = (flags(j) & 2) != 0,
+        attribs   = TileProperties(0)
+      )).toArray
+
+      VMap(confs, entries) named name
+
+    }).toBuffer
+
+  }
+
+
+  def writeVMapsBinary(file: File, vMaps: Buffer[Named[VMap]]): Unit = {
+    Files.write(file.toPath, vMapsBinaryBytes(vMaps))
+  }
+
+
+  def vMapsBinaryBytes(vMaps: Buffer[Named[VMap]]): Array[Byte] = {
+
+    val names = vMaps.map(vmap => (
+        vmap.name.getBytes("UTF-8"),
+        vmap.value.palConfs.map(_.name.getBytes("UTF-8"))))
+
+    val size = VMapsMagic.length + 1 + 4 + vMaps.zip(names).map({case (vmap, (name, confNames)) => {
+      4 + name.length +
+      4 + vmap.value.palConfs.zip(confNames).map({case (conf, confName) => {
+        4 + confName.length + 4 + conf.value.chunkIdxs.length * 4
+      }}).sum +
+      4 + vmap.value.entries.length * 9
+    }}).sum
+
+    val bb = ByteBuffer.allocate(size)
+    bb.put(VMapsMagic)
+    bb.put(VMapsVersion.toByte)
+    bb.putInt(vMaps.length)
+
+    vMaps.zip(names).foreach({case (vmap, (name, confNames)) => {
+
+      bb.putInt(name.length)
+      bb.put(name)
+
+      bb.putInt(vmap.value.palConfs.length)
+      vmap.value.palConfs.zip(confNames).foreach({case (conf, confName) => {
+        bb.putInt(confName.length)
+        bb.put(confName)
+        bb.putInt(conf.value.chunkIdxs.length)
+        conf.value.chunkIdxs.foreach(idx => bb.putInt(idx))
+      }})
+
+      val entries = vmap.value.entries
+      bb.putInt(entries.length)
+      entries.foreach(entry => bb.putInt(entry.pixelsIdx))
+      entries.foreach(entry => bb.putInt(entry.palOffset))
+      entries.foreach(entry => bb.put(vMapEntryFlags(entry)))
+
+    }})
+
+    bb.array
+
+  }
+
+
+  // position of each vmap's pixelsIdx column in a binary vmaps file; the
+  // palOffset and flag columns follow it
+  def vMapsEntryOffsets(vMaps: Buffer[Named[VMap]]): Array[Int] = {
+    var position = VMapsMagic.length + 1 + 4
+    vMaps.map(vmap => {
+      position += 4 + vmap.name.getBytes("UTF-8").length + 4
+      vmap.value.palConfs.foreach(conf => {
+        position += 4 + conf.name.getBytes("UTF-8").length + 4 + conf.value.chunkIdxs.length * 4
+      })
+      position += 4
+      val offset = position
+      position += vmap.value.entries.length * 9
+      offset
+    }).toArray
+  }
+
+
+  def vMapEntryFlags(entry: VMapEntry): Byte = {
+    ((if (entry.flipX) 1 else 0) | (if (entry.flipY) 2 else 0)).toByte
+  }
+
+
+  private def getString(bb: ByteBuffer): String = {
+    val bytes = new Array[Byte](bb.getInt())
+    bb.get(bytes)
+    new String(bytes, "UTF-8")
+  }
+
+
   // read key value pairs until a blank line or end of file is reached
   def readMap(br: BufferedReader): Map[String, String] = {
+    val builder = Map.newBuilder[String, String]
+    scanMap(br)((key, value) => builder += ((key, value)))
+    builder.result
+  }
 
-    import scala.collection.mutable.{HashMap => MutableMap}
 
-    var line = br.readLine()
-    var lineCount = 1
+  // read a block containing a count
+  def readCount(br: BufferedReader): Int = {
+    var count = 0
+    scanMap(br)((key, value) => if (key.equals("count")) count = parseInt(value, 0))
+    count
+  }
 
-    val mutMap: MutableMap[String, String] = new MutableMap()
 
-    Try(while (line != null) {
+  // Scan "key: value" lines until a blank line or end of file is reached,
+  // passing each pair to a callback. Trailing whitespace is ignored, as
+  // are lines without a colon followed by whitespace.
+  def scanMap(br: BufferedReader)(field: (String, String) => Unit): Unit = {
 
-      val Trimmer(trimmed) = line
+    var line = br.readLine()
+    var end = trimmedLength(line)
 
-      if (trimmed.equals("")) {
-        throw(new Exception())
-      } else {
-        val splitted = trimmed.split(":\\s+")
-        if (splitted.length >= 2) {
-          val field = splitted(0)
-          val propVal = splitted.drop(1).mkString(": ")
-          mutMap += ((field, propVal))
-        }
+    while (end > 0) {
+
+      var colon = line.indexOf(':')
+      while (colon >= 0 && colon < end - 1 && !isSpace(line.charAt(colon + 1))) {
+        colon = line.indexOf(':', colon + 1)
       }
 
-      ///
+      if (colon >= 0 && colon < end - 1) {
+        var start = colon + 1
+        while (isSpace(line.charAt(start))) {
+          start += 1
+        }
+        field(line.substring(0, colon), line.substring(start, end))
+      }
 
       line = br.readLine()
-      lineCount = lineCount + 1
+      end = trimmedLength(line)
 
-    })
+    }
+
+  }
+
+
+  // parse a decimal int, returning a default rather than throwing
+  def parseInt(s: String, default: Int): Int = {
 
-    mutMap.toMap
+    if (s == null) {
+      return default
+    }
+
+    val end = trimmedLength(s)
+    val negative = end > 0 && s.charAt(0) == '-'
+    val start = if (negative) 1 else 0
+    if (start == end || end - start > 10) {
+      return default
+    }
+
+    var result = 0L
+    var i = start
+    while (i < end) {
+      val c = s.charAt(i)
+      if (c < '0' || c > '9') {
+        return default
+      }
+      result = result * 10 + (c - '0')
+      i += 1
+    }
+
+    val signed = if (negative) -result else result
+    if (signed < Int.MinValue || signed > Int.MaxValue) default else signed.toInt
 
   }
 
 
+  // length of a line without trailing whitespace, 0 for end of file
+  private def trimmedLength(line: String): Int = {
+    if (line == null) {
+      0
+    } else {
+      var end = line.length
+      while (end > 0 && isSpace(line.charAt(end - 1))) {
+        end -= 1
+      }
+      end
+    }
+  }
+
+
+  private def isSpace(c: Char): Boolean = {
+    c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000b'
+  }
+
+
   def writeMap(bw: BufferedWriter, map: Map[String, String]): Unit = {
     map.foreach({case (k, v) => {
       bw.write(k + ": " + v)
@@ -299,6 +722,16 @@ object IO {
   }
 
 
+  // text written to a BufferedWriter, encoded as a FileWriter would
+  private def textBytes(write: BufferedWriter => Unit): Array[Byte] = {
+    val sw = new StringWriter()
+    val bw = new BufferedWriter(sw)
+    write(bw)
+    bw.close()
+    sw.toString.getBytes
+  }
+
+
   private def base64ToInt(b64: String): Array[Int] = {
     val bb = DatatypeConverter.parseBase64Binary(b64)
     // ByteBuffer.wrap(bb).asIntBuffer.array
@@ -0,0 +1,123 @@
+// Copyright (c) 2016 Ben Zimmer. All rights reserved.
+
+// Keeps preview images on disk as PNGs. Alongside each image is a list of
+// the files it was rendered from with their modification times and sizes,
+// so a preview is only rendered again once one of those files changes.
+
+package bdzimmer.pixeleditor.controller
+
+import java.awt.image.BufferedImage     // scalastyle:ignore illegal.imports
+import java.io.{File, IOException}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, StandardCopyOption}
+import javax.imageio.ImageIO
+
+import scala.collection.JavaConverters._
+
+import bdzimmer.pixeleditor.model.TileAttributes
+
+
+class ThumbnailCache(val dir: File) {
+
+  /**
+   * Get a preview image, reading it from the cache if the files it was
+   * rendered from are unchanged, or rendering and storing it otherwise.
+   *
+   * @param name      name of the preview, unique within the cache
+   * @param key       anything besides file contents that the image depends on
+   * @param render    render the image, returning it and the files it was read from
+   * @return  preview image
+   */
+  def get(name: String, key: String)(render: => (BufferedImage, Seq[File])): BufferedImage = {
+
+    val cleanName = ThumbnailCache.cleanName(name)
+    val imageFile = new File(dir, cleanName + ".png")
+    val sourcesFile = new File(dir, cleanName + ".txt")
+
+    cached(imageFile, sourcesFile, key).getOrElse({
+      val (image, sources) = render
+      store(imageFile, sourcesFile, key, image, sources)
+      image
+    })
+
+  }
+
+
+  // read a cached image if it is still current
+  private def cached(imageFile: File, sourcesFile: File, key: String): Option[BufferedImage] = {
+
+    if (!sourcesFile.exists || !imageFile.exists) {
+      return None
+    }
+
+    try {
+      val lines = Files.readAllLines(sourcesFile.toPath, StandardCharsets.UTF_8).asScala
+      val current = lines.headOption.exists(_.equals(key)) &&
+          lines.tail.forall(line => line.equals(ThumbnailCache.stamp(new File(line.split("\t")(0)))))
+      if (current) {
+        Option(ImageIO.read(imageFile))
+      } else {
+        None
+      }
+    } catch {
+      case e: IOException => None
+    }
+
+  }
+
+
+  // write an image and the stamps of its sources; the old list of sources is
+  // removed first, so a partial write is never taken as current
+  private def store(
+      imageFile: File, sourcesFile: File, key: String,
+      image: BufferedImage, sources: Seq[File]): Unit = {
+
+    try {
+      dir.mkdirs()
+      Files.deleteIfExists(sourcesFile.toPath)
+      replace(imageFile, tempFile => ImageIO.write(image, "png", tempFile))
+      val lines = key :: sources.map(ThumbnailCache.stamp(_)).toList
+      replace(sourcesFile, tempFile => Files.write(tempFile.toPath, lines.asJava, StandardCharsets.UTF_8))
+    } catch {
+      case e: IOException => System.err.println(e)
+    }
+
+  }
+
+
+  // write to a temporary file and move it into place, so that windows
+  // sharing the cache never see partially written files
+  private def replace(file: File, write: File => Any): Unit = {
+    val tempFile = File.createTempFile(file.getName, ".tmp", dir)
+    try {
+      write(tempFile)
+      Files.move(tempFile.toPath, file.toPath, StandardCopyOption.REPLACE_EXISTING)
+    } finally {
+      tempFile.delete()
+    }
+  }
+
+}
+
+
+
+object ThumbnailCache {
+
+  // identify the version of a file by its path, modification time, and size
+  def stamp(file: File): String = {
+    file.getAbsolutePath + "\t" + file.lastModified + "\t" + file.length
+  }
+
+  // describe tile attributes for use in a key
+  def attributesKey(attrs: TileAttributes): String = {
+    List(
+        attrs.height, attrs.width, attrs.count, attrs.palStart, attrs.palEnd,
+        attrs.tileProperties, attrs.tilesPerRow).mkString(" ")
+  }
+
+  // replace characters that are not safe in filenames
+  def cleanName(name: String): String = {
+    name.replaceAll("[^A-Za-z0-9._-]", "_")
+  }
+
+}
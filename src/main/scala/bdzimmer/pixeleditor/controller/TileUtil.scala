@@ -16,12 +16,7 @@ object TileUtil {
       tile: Array[Array[Int]],
       x: Int, y: Int,
       palOffset: Int): Unit = {
-
-    for (i <- 0 until tile.length) {
-      for (j <- 0 until tile(i).length) {
-        ig.setPixel(y + i, x + j, tile(i)(j) + palOffset)
-      }
-    }
+    ig.blitTile(tile, x, y, palOffset, IndexedGraphics.NO_TRANSPARENCY)
   }
 
 
@@ -30,16 +25,18 @@ object TileUtil {
   }
 
 
-  // TODO: customizable transparency, palOffset
+  def drawTileTrans(
+      ig: IndexedGraphics,
+      tile: Array[Array[Int]],
+      x: Int, y: Int,
+      palOffset: Int,
+      transparentIndex: Int): Unit = {
+    ig.blitTile(tile, x, y, palOffset, transparentIndex)
+  }
+
+
   def drawTileTrans(ig: IndexedGraphics, tile: Array[Array[Int]], x: Int, y: Int): Unit = {
-    for (i <- 0 until tile.length) {
-      for (j <- 0 until tile(i).length) {
-        val curColor = tile(i)(j)
-        if (curColor != 255) {
-          ig.setPixel(y + i, x + j, curColor)
-        }
-      }
-    }
+    drawTileTrans(ig, tile, x, y, 0, 255)
   }
 
 
@@ -6,9 +6,11 @@
 
 package bdzimmer.pixeleditor.controller
 
-import java.io.{FileInputStream, FileOutputStream}
+import java.io.{File, FileInputStream, FileOutputStream}
+import java.nio.{ByteBuffer, ByteOrder}
+import java.nio.file.Files
 
-import bdzimmer.pixeleditor.model.{TileAttributes, Tileset, Tile, TileProperties, Palette, Color}
+import bdzimmer.pixeleditor.model.{TileAttributes, Tileset, Tile, TileProperties, Palette, Color, PackedTiles}
 import bdzimmer.pixeleditor.model.{QbInputStream, QbOutputStream}
 
 
@@ -65,15 +67,211 @@ class OldTilesetLoader(val filename: String, attrs: TileAttributes) extends Tile
 
 
 
+// Loads the old tileset format, decoding the palette and properties up front
+// but each tile bitmap only when it is first accessed. Decoded files are
+// shared between loaders through a process-wide cache, so each file is read
+// once until it changes on disk.
+
+class LazyTilesetLoader(val filename: String, attrs: TileAttributes) extends TilesetLoader {
+
+  def load(): Tileset = {
+
+    LazyTilesetLoader.entry(filename, attrs) match {
+      case Some(entry) => {
+        // tiles are decoded on first access
+        val packed = entry.packed
+        val tiles = (0 until attrs.count).map(i => new Tile(packed.bitmap(i))).toArray
+
+        // copies, since editors modify palettes and properties in place
+        val palette = entry.palette.copy(colors = entry.palette.colors.clone)
+        val properties = entry.properties.clone
+
+        new Tileset(tiles, properties, List(palette), attrs.tilesPerRow)
+      }
+      case None => {
+        // truncated file; let the stream loader report the error
+        new OldTilesetLoader(filename, attrs).load()
+      }
+    }
+
+  }
+
+
+  // load only the tile bitmaps, into a store of their own
+  def loadPacked(): PackedTiles = {
+    LazyTilesetLoader.entry(filename, attrs) match {
+      case Some(entry) => {
+        val packed = entry.packed
+        new PackedTiles(packed.getData.clone, 0, attrs.count, attrs.width, attrs.height)
+      }
+      case None => PackedTiles.fromTiles(new OldTilesetLoader(filename, attrs).load().tiles)
+    }
+  }
+
+
+  // load the tile bitmaps and first palette as held by the cache, without
+  // copying; for callers that only read them, such as renderers
+  def loadShared(): (PackedTiles, Palette) = {
+    LazyTilesetLoader.entry(filename, attrs) match {
+      case Some(entry) => (entry.packed, entry.palette)
+      case None => {
+        val tileset = new OldTilesetLoader(filename, attrs).load()
+        (PackedTiles.fromTiles(tileset.tiles), tileset.palettes(0))
+      }
+    }
+  }
+
+
+  def save(t: Tileset): Unit = {
+    new OldTilesetLoader(filename, attrs).save(t)
+    LazyTilesetLoader.invalidate(filename)
+  }
+
+}
+
+
+
+object LazyTilesetLoader {
+
+  // total size of tile data to keep decoded
+  val MaxCachedBytes = 16 * 1024 * 1024
+
+  case class Entry(
+      modified: Long,
+      length: Long,
+      attrs: TileAttributes,
+      packed: PackedTiles,
+      palette: Palette,
+      properties: Array[TileProperties])
+
+  // decoded files by canonical path, least recently used first
+  private val cache = new java.util.LinkedHashMap[String, Entry](16, 0.75f, true)
+  private var cachedBytes = 0L
+
+
+  // get the decoded contents of a file, decoding it again only if it has
+  // changed or was loaded with different attributes
+  def entry(filename: String, attrs: TileAttributes): Option[Entry] = {
+
+    val file = new File(filename)
+    val path = file.getCanonicalPath
+    val modified = file.lastModified
+    val length = file.length
+
+    val cached = cache.synchronized {
+      Option(cache.get(path)).filter(current(_, modified, length, attrs))
+    }
+
+    cached.orElse({
+      // read and decode without holding the lock, so that other files can
+      // be loaded meanwhile; if two threads decode the same file, the
+      // first to finish is kept
+      val decoded = decode(Files.readAllBytes(file.toPath), modified, length, attrs)
+      cache.synchronized {
+        Option(cache.get(path)).filter(current(_, modified, length, attrs)).orElse({
+          remove(path)
+          decoded.foreach(entry => {
+            cache.put(path, entry)
+            cachedBytes += entry.packed.getData.length
+            evict()
+          })
+          decoded
+        })
+      }
+    })
+
+  }
+
+
+  // remove a file from the cache
+  def invalidate(filename: String): Unit = {
+    val path = new File(filename).getCanonicalPath
+    cache.synchronized {
+      remove(path)
+    }
+  }
+
+
+  private def remove(path: String): Unit = {
+    val removed = cache.remove(path)
+    if (removed != null) {
+      cachedBytes -= removed.packed.getData.length
+    }
+  }
+
+
+  // drop least recently used entries until under the size limit,
+  // always keeping the newest
+  private def evict(): Unit = {
+    val it = cache.values.iterator
+    while (cachedBytes > MaxCachedBytes && cache.size > 1 && it.hasNext) {
+      cachedBytes -= it.next().packed.getData.length
+      it.remove()
+    }
+  }
+
+
+  private def decode(
+      bytes: Array[Byte], modified: Long, length: Long, attrs: TileAttributes): Option[Entry] = {
+
+    val tileBytes = attrs.count * attrs.width * attrs.height
+    val paletteSize = attrs.palEnd - attrs.palStart + 1
+
+    val required = tileBytes + paletteSize * 6 +
+        (if (attrs.tileProperties) attrs.count * 2 else 0)
+    if (bytes.length < required) {
+      return None
+    }
+
+    // only the tile section is kept
+    val packed = new PackedTiles(
+        java.util.Arrays.copyOf(bytes, tileBytes), 0, attrs.count, attrs.width, attrs.height)
+
+    val buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN)
+    buffer.position(tileBytes)
+
+    // load the palette
+    val palette = Palette(
+        attrs.palStart, attrs.palEnd,
+        (0 until paletteSize).map(x => {
+          Color(buffer.getShort & 0xFF, buffer.getShort & 0xFF, buffer.getShort & 0xFF)
+        }).toArray,
+        6)
+
+    // load tile properties
+    val properties = if (attrs.tileProperties) {
+      (0 until attrs.count).map(x => TileProperties(buffer.getShort & 0xFF)).toArray
+    } else {
+      Array[TileProperties]()
+    }
+
+    Some(Entry(modified, length, attrs, packed, palette, properties))
+
+  }
+
+
+  private def current(entry: Entry, modified: Long, length: Long, attrs: TileAttributes): Boolean = {
+    entry.modified == modified && entry.length == length && sameAttributes(entry.attrs, attrs)
+  }
+
+
+  private def sameAttributes(a: TileAttributes, b: TileAttributes): Boolean = {
+    a.width == b.width && a.height == b.height && a.count == b.count &&
+    a.palStart == b.palStart && a.palEnd == b.palEnd &&
+    a.tileProperties == b.tileProperties
+  }
+
+}
+
+
+
 object OldTilesetLoader {
 
   // load an m x n tile
   def loadTile(is: QbInputStream, width: Int, height: Int): Tile = {
     val tile = Tileset.emptyTile(width, height)
     for (y <- 0 until height) {
-      for (x <- 0 until width) {
-        tile.bitmap(y)(x) = is.readQbUnsignedByte()
-      }
+      is.readQbUnsignedBytes(tile.bitmap(y), 0, width)
     }
     tile
   }
@@ -81,10 +279,9 @@ object OldTilesetLoader {
 
   // load an rgb triple
   def loadColor(is: QbInputStream): Color = {
-    val red =   is.readQbUnsignedShortLow()
-    val green = is.readQbUnsignedShortLow()
-    val blue =  is.readQbUnsignedShortLow()
-    Color(red, green, blue)
+    val rgb = new Array[Int](3)
+    is.readQbShortLows(rgb, 0, 3)
+    Color(rgb(0), rgb(1), rgb(2))
   }
 
 
@@ -99,9 +296,7 @@ object OldTilesetLoader {
   // save an m x n tile
   def saveTile(os: QbOutputStream, tile: Tile): Unit = {
     for (row <- tile.bitmap) {
-      for (pixel <- row) {
-        os.writeQbUnsignedByte(pixel)
-      }
+      os.writeQbUnsignedBytes(row, 0, row.length)
     }
   }
 
@@ -15,5 +15,6 @@ object ContentStructure {
   val MapDir = "map"
   val SpriteDir = "sprite"
   val ScriptDir = "script"
+  val ThumbnailDir = "thumbnail"
 
 }
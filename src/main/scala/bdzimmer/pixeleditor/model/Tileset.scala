@@ -9,14 +9,35 @@
 
 package bdzimmer.pixeleditor.model
 
-import java.awt.image.{BufferedImage, IndexColorModel}     // scalastyle:ignore illegal.imports
+import java.awt.image.{BufferedImage, DataBufferInt, IndexColorModel}     // scalastyle:ignore illegal.imports
 import java.io.{File, FileInputStream, FileOutputStream}
 
 
 case class TileProperties(value: Int)    // for now
 
 
-case class Tile(bitmap: Array[Array[Int]])
+// The bitmap is evaluated on first access, so that loaders may defer
+// decoding tiles that are never displayed.
+class Tile(load: => Array[Array[Int]]) {
+
+  lazy val bitmap: Array[Array[Int]] = load
+
+  // incremented by editors after changing the bitmap in place, so that
+  // rendered copies can tell when they are out of date
+  @volatile private var version = 0
+
+  def getVersion(): Int = version
+
+  def modified(): Unit = {
+    version += 1
+  }
+
+}
+
+
+object Tile {
+  def apply(bitmap: Array[Array[Int]]): Tile = new Tile(bitmap)
+}
 
 
 case class Palette(start: Int, end: Int, colors: Array[Color], bitsPerChannel: Int) {
@@ -88,23 +109,31 @@ class Tileset (
       transparentColor: Color): BufferedImage = {
 
     val curPal = palettes(paletteIndex)
-    val fullPal = (0 to 255).map(x => Color(0, 0, 0)).toArray
+
+    // packed CLUT, calculated once
+    val black = curPal.colorInt(Color(0, 0, 0)) & 0xFFFFFF
+    val clut = Array.fill(256)(black)
     for (x <- curPal.start to curPal.end) {
-      fullPal(x) = curPal.colors(x - curPal.start)
+      clut(x) = curPal.colorInt(curPal.colors(x - curPal.start)) & 0xFFFFFF
     }
-    fullPal(255) = transparentColor
+    clut(255) = curPal.colorInt(transparentColor) & 0xFFFFFF
 
+    val imageWidth = tilesWide * width
     val tilesImage = new BufferedImage(
-        tilesWide * width, tilesHigh * height, BufferedImage.TYPE_INT_RGB)
+        imageWidth, tilesHigh * height, BufferedImage.TYPE_INT_RGB)
+    val pixels = tilesImage.getRaster.getDataBuffer.asInstanceOf[DataBufferInt].getData
 
     for (whichTile <- 0 until tiles.length) {
       val xoff = (whichTile % tilesWide) * width
       val yoff = (whichTile / tilesWide) * height
-
+      val bitmap = tiles(whichTile).bitmap
       for (y <- 0 until height) {
-        for (x <- 0 until width) {
-          val color = fullPal(tiles(whichTile).bitmap(y)(x))
-          tilesImage.setRGB(xoff + x, yoff + y, curPal.colorInt(color))
+        val row = bitmap(y)
+        val start = (yoff + y) * imageWidth + xoff
+        var x = 0
+        while (x < width) {
+          pixels(start + x) = clut(row(x))
+          x += 1
         }
       }
     }
@@ -12,16 +12,21 @@ import java.io.File
 import javax.swing.{JButton, JComponent, JPanel, SwingConstants, JScrollPane}
 import javax.swing.border.EmptyBorder
 
+import scala.collection.JavaConverters._
 import scala.collection.mutable.Buffer
 
 
 class ImageWidget(
-    val title: String,
-    image: BufferedImage,
+    private var title: String,
+    private var image: BufferedImage,
     buttons: List[JButton],
     buttonWidth: Int = 100,
     yOffset: Int = 0) extends JComponent {
 
+  def this(title: String, image: BufferedImage, buttons: java.util.List[JButton]) = {
+    this(title, image, buttons.asScala.toList)
+  }
+
   val wx = image.getWidth + buttonWidth
   val wy = image.getHeight + yOffset
 
@@ -65,6 +70,23 @@ class ImageWidget(
   }
 
 
+  def getTitle(): String = {
+    title
+  }
+
+  def setTitle(title: String): Unit = {
+    this.title = title
+    repaint()
+  }
+
+
+  // replace the image, which should be the same size as the original
+  def setImage(image: BufferedImage): Unit = {
+    this.image = image
+    repaint()
+  }
+
+
   def setSelected(selected: Boolean): Unit = {
     this.selected = selected
   }
@@ -79,6 +101,14 @@ class ImageWidget(
 object ImageWidget {
   val DefaultWidth = 320
   val DefaultHeight = 200
+
+  // blank images are never drawn on, so one of each size is shared
+  private val blankImages = new scala.collection.mutable.HashMap[(Int, Int), BufferedImage]()
+
+  def blankImage(width: Int, height: Int): BufferedImage = blankImages.synchronized {
+    blankImages.getOrElseUpdate(
+        (width, height), new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB))
+  }
 }
 
 
@@ -3,71 +3,100 @@
 package bdzimmer.pixeleditor.view;
 
 import java.awt.image.BufferedImage                   // scalastyle:ignore illegal.imports
-import java.awt.event.{ActionEvent, ActionListener}   // scalastyle:ignore illegal.imports
 import java.io.File
 import java.util.ArrayList
-import javax.swing.JButton
 
 import bdzimmer.util.StringUtils._
 
 import bdzimmer.pixeleditor.model.{ContentStructure, IndexedGraphics, Map, TileAttributes, TileOptions}
-import bdzimmer.pixeleditor.controller.OldTilesetLoader
+import bdzimmer.pixeleditor.controller.{LazyTilesetLoader, ThumbnailCache}
 
 
-class MapLoadWindow(main: Main) extends LoadWidgetWindow(main, main.contentDir, "Load Maps") {
+class MapLoadWindow(main: Main) extends LoadWidgetWindow(
+    main, main.contentDir, "Load Maps", Array("View", "Edit")) {
 
-  def populateObjects(inputDir: String): ArrayList[ImageWidget] = {
+  def populateObjects(inputDir: String): java.util.List[LoadWidgetWindow.WidgetSource] = {
 
     val mapItems = main.metadata.filter(_.assetType.equals("Map"))
-    val widgets = mapItems.map(x => {
+    val sources = mapItems.map(x => {
       println(inputDir / x.filename)
-      mapWidget(inputDir / x.filename, x.name)
+      mapSource(inputDir, x.filename, x.name)
     })
 
-    val widgetsArrayList = new java.util.ArrayList[ImageWidget]
-    widgets.foreach(widgetsArrayList.add(_))
-    widgetsArrayList
+    val sourcesArrayList = new ArrayList[LoadWidgetWindow.WidgetSource]
+    sources.foreach(sourcesArrayList.add(_))
+    sourcesArrayList
   }
 
 
-  private def mapWidget(mapFilename: String, title: String): ImageWidget = {
+  private def mapSource(
+      inputDir: String, filename: String, mapTitle: String): LoadWidgetWindow.WidgetSource = {
 
-    // TODO: deal with tiles file doesn't exist
+    val mapFilename = inputDir / filename
+
+    new LoadWidgetWindow.WidgetSource() {
+
+      def title(): String = mapTitle
+
+      def action(button: Int): Unit = button match {
+        case 0 => new ImageWindow(mapImage(mapFilename)._1)
+        case _ => main.createLinkedTileAndMapWindows(tilesFilename(loadMap(mapFilename)), mapFilename)
+      }
+
+      def image(): BufferedImage = {
+
+        val tileAttrs = TileOptions.getOrQuit("Tiles")
+
+        thumbnails.get(filename, ThumbnailCache.attributesKey(tileAttrs)) {
+
+          val (mapImage, sources) = MapLoadWindow.this.mapImage(mapFilename)
+
+          val subsetImage = new BufferedImage(
+              ImageWidget.DefaultWidth, ImageWidget.DefaultHeight, BufferedImage.TYPE_INT_RGB)
+
+          subsetImage.getGraphics.drawImage(
+              mapImage,
+              (ImageWidget.DefaultWidth - mapImage.getWidth) / 2,
+              (ImageWidget.DefaultHeight - mapImage.getHeight) / 2,
+              null)
+
+          (subsetImage, sources)
+
+        }
+
+      }
+
+    }
 
+  }
+
+
+  private def loadMap(mapFilename: String): Map = {
     val mapFile = new File(mapFilename)
-    val map = mapFile.exists match {
+    mapFile.exists match {
       case true => new Map(mapFile)
       case false => new Map()
     }
+  }
 
-    val tilesFilename =  main.contentDir / ContentStructure.TileDir / map.tileFileName + ".til"
-    val mapTiles = new OldTilesetLoader(tilesFilename, TileOptions.getOrQuit("Tiles")).load()
-    val mapImage = map.image(mapTiles, mapTiles.palettes(0))
 
-    val subsetImage = new BufferedImage(
-        ImageWidget.DefaultWidth, ImageWidget.DefaultHeight, BufferedImage.TYPE_INT_RGB)
+  private def tilesFilename(map: Map): String = {
+    main.contentDir / ContentStructure.TileDir / map.tileFileName + ".til"
+  }
 
-    subsetImage.getGraphics.drawImage(
-        mapImage,
-        (ImageWidget.DefaultWidth - mapImage.getWidth) / 2,
-        (ImageWidget.DefaultHeight - mapImage.getHeight) / 2,
-        null)
 
-    val viewer = new JButton("View")
-    viewer.addActionListener(new ActionListener() {
-      def actionPerformed(event: ActionEvent): Unit = {
-        new ImageWindow(mapImage)
-      }
-    })
+  // full size images are rendered when needed rather than kept for each map;
+  // also returns the files the image depends on
+  private def mapImage(mapFilename: String): (BufferedImage, List[File]) = {
 
-    val loader = new JButton("Edit")
-    loader.addActionListener(new ActionListener() {
-      def actionPerformed(event: ActionEvent): Unit = {
-        main.createLinkedTileAndMapWindows(tilesFilename, mapFilename)
-      }
-    })
+    // TODO: deal with tiles file doesn't exist
+
+    val map = loadMap(mapFilename)
+    val tilesLoader = new LazyTilesetLoader(tilesFilename(map), TileOptions.getOrQuit("Tiles"))
+    val (packed, palette) = tilesLoader.loadShared()
+    val image = map.image(packed, palette)
 
-    new ImageWidget(title, subsetImage, List(viewer, loader))
+    (image, List(new File(mapFilename), new File(tilesFilename(map))))
 
   }
 
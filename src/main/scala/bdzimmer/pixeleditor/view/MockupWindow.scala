@@ -7,7 +7,7 @@ import scala.collection.mutable.Buffer
 import javax.swing.{JTextField, JComboBox, JOptionPane}
 
 import bdzimmer.pixeleditor.model.TileCollectionModel._
-import bdzimmer.pixeleditor.model.{Color, TileProperties, TileContainer}
+import bdzimmer.pixeleditor.model.{Color, SharedPalette, TileProperties, TileContainer}
 import bdzimmer.pixeleditor.controller.{IO, TileUtil}
 import bdzimmer.pixeleditor.model.{Map => Background}
 
@@ -41,7 +41,7 @@ class MockupWindow(title: String, dirName: String)
 
   val paletteSize = 256 // TODO: MockupWindow settings
   val tileContainer = new TileContainer
-  val globalPalette = TileUtil.colorArray(paletteSize)
+  val globalPalette = new SharedPalette(TileUtil.colorArray(paletteSize))
 
   override def buildUpdater(item: Named[MockupElement]): WidgetUpdater = {
     new MockupElementUpdater(item)
@@ -83,6 +83,7 @@ class PixelsWindow(
           pixels.tiles(pixelsIdx).bitmap(i)(j) = tileContainer.getTileBitmap()(i)(j)
         }
       }
+      pixels.tiles(pixelsIdx).modified()
       pixels.defaultPalOffsets(pixelsIdx) = curPalOffset
 
       tileContainer.setTileIndex(pixelsIdx)
@@ -112,7 +113,12 @@ class PixelsWindow(
         bitmap,
         new ArrayContainer(pixels.defaultPalOffsets, pixelsIdx),
         settings.colorsPerTile)
-    zoomWindow.setUpdater(updater)
+    zoomWindow.setUpdater(new Updater() {
+      def update(): Unit = {
+        pixels.tiles(pixelsIdx).modified()
+        updater.update()
+      }
+    })
 
     zoomWindow.toFront()
     zoomWindow.setVisible(true)
@@ -229,7 +235,7 @@ class PixelsWindow(
     val entries = (0 until pixels.tiles.size).map(idx => {
       VMapEntry(idx, pixels.defaultPalOffsets(idx), false, false, new TileProperties(0))
     }).toArray
-    val image = new TilesetImage(entries, pixels.tiles, paletteWindow.getPalette, PixelsWindow.Scale, settings)
+    val image = new TilesetImage(entries, pixels.tiles, paletteWindow.getSharedPalette, PixelsWindow.Scale, settings)
 
     val widget = new ImageWidget("", image.indexedGraphics.getImage, List(), 0, 0)
 
@@ -3,10 +3,8 @@
 package bdzimmer.pixeleditor.view;
 
 import java.awt.image.BufferedImage                   // scalastyle:ignore illegal.imports
-import java.awt.event.{ActionEvent, ActionListener}   // scalastyle:ignore illegal.imports
 import java.io.File
 import java.util.ArrayList
-import javax.swing.JButton
 
 import scala.collection.JavaConverters._
 import scala.sys.process._
@@ -15,91 +13,121 @@ import bdzimmer.util.{Result, Pass, Fail}
 import bdzimmer.util.StringUtils._
 
 import bdzimmer.pixeleditor.model._
-import bdzimmer.pixeleditor.controller.OldTilesetLoader
+import bdzimmer.pixeleditor.controller.{LazyTilesetLoader, ThumbnailCache}
 
 
 
-class ScriptLoadWindow(main: Main) extends LoadWidgetWindow(main, main.contentDir, "Load Script Files") {
+class ScriptLoadWindow(main: Main) extends LoadWidgetWindow(
+    main, main.contentDir, "Load Script Files", Array("View Maps", "Edit Maps", "Edit Script")) {
 
-  def populateObjects(inputDir: String): ArrayList[ImageWidget] = {
+  def populateObjects(inputDir: String): java.util.List[LoadWidgetWindow.WidgetSource] = {
     val world = new World(main.contentDir)
-    val widgets = world.getScriptFiles.asScala.map(scriptWidget(_))
+    val sources = world.getScriptFiles.asScala.map(scriptSource(_))
 
-    val widgetsArrayList = new java.util.ArrayList[ImageWidget]
-    widgets.foreach(widgetsArrayList.add(_))
-    widgetsArrayList
+    val sourcesArrayList = new java.util.ArrayList[LoadWidgetWindow.WidgetSource]
+    sources.foreach(sourcesArrayList.add(_))
+    sourcesArrayList
   }
 
 
-  private def scriptWidget(scriptFile: ScriptFile): ImageWidget = {
+  private def scriptSource(scriptFile: ScriptFile): LoadWidgetWindow.WidgetSource = {
 
-    val mapImages = scriptFile.getMaps.asScala.map(x => {
+    new LoadWidgetWindow.WidgetSource() {
 
-      val image = for {
-        mapFile <- Result.fromFilename(main.contentDir / ContentStructure.MapDir / x + ".map")
-        map = new Map(mapFile)
-        tilesFile <- Result.fromFilename(
-            main.contentDir / ContentStructure.TileDir / map.tileFileName + ".til")
-        tiles = new OldTilesetLoader(tilesFile.getPath, TileOptions.getOrQuit("Tiles")).load()
-      } yield {
-        map.image(tiles, tiles.palettes(0))
-      }
+      def title(): String = scriptFile.getTitle
 
-      image match {
-        case Pass(x) => Some(x)
-        case Fail(x) => None
-      }
+      def action(button: Int): Unit = button match {
+
+        case 0 => {
+          scriptFile.getMaps.asScala.flatMap(x => mapImage(x)._1).foreach(new ImageWindow(_))
+        }
 
-    }).flatten
+        case 1 => {
+          scriptFile.getMaps.asScala.map(x => {
+            val mapFilename = (main.contentDir / ContentStructure.MapDir / x + ".map")
+            val map = new Map(new File(mapFilename))
+            val tileFilename = (main.contentDir / ContentStructure.TileDir / map.tileFileName + ".til")
 
+            main.createLinkedTileAndMapWindows(tileFilename, mapFilename)
 
-    val subsetImage = new BufferedImage(
-        ImageWidget.DefaultWidth, ImageWidget.DefaultHeight, BufferedImage.TYPE_INT_RGB)
+          })
+        }
 
-    mapImages.headOption.foreach(x => {
-      subsetImage.getGraphics.drawImage(
-          x,
-          (ImageWidget.DefaultWidth - x.getWidth) / 2,
-          (ImageWidget.DefaultHeight - x.getHeight) / 2,
-          null)
-    })
+        case _ => {
+          val command =  ("notepad.exe " + main.contentDir /
+              ContentStructure.ScriptDir /
+              scriptFile.getFileName())
+          command.!
+        }
 
-    val viewer = new JButton("View Maps")
-    viewer.addActionListener(new ActionListener() {
-      def actionPerformed(event: ActionEvent): Unit = {
-        mapImages.foreach(new ImageWindow(_))
       }
-    })
 
+      def image(): BufferedImage = {
 
-    val mapLoader = new JButton("Edit Maps")
-    mapLoader.addActionListener(new ActionListener() {
-      def actionPerformed(event: ActionEvent): Unit = {
+        val scriptFilename = main.contentDir / ContentStructure.ScriptDir / scriptFile.getFileName
 
-        scriptFile.getMaps.asScala.map(x => {
-          val mapFilename = (main.contentDir / ContentStructure.MapDir / x + ".map")
-          val map = new Map(new File(mapFilename))
-          val tileFilename = (main.contentDir / ContentStructure.TileDir / map.tileFileName + ".til")
+        thumbnails.get(
+            ContentStructure.ScriptDir / scriptFile.getFileName,
+            ThumbnailCache.attributesKey(TileOptions.getOrQuit("Tiles"))) {
 
-          main.createLinkedTileAndMapWindows(tileFilename, mapFilename)
+          val subsetImage = new BufferedImage(
+              ImageWidget.DefaultWidth, ImageWidget.DefaultHeight, BufferedImage.TYPE_INT_RGB)
+
+          // only the first map that can be loaded is shown
+          val rendered = scriptFile.getMaps.asScala.toStream.map(mapImage(_))
+          val (tried, rest) = rendered.span(_._1.isEmpty)
+          val shown = rest.headOption
+
+          shown.flatMap(_._1).foreach(x => {
+            subsetImage.getGraphics.drawImage(
+                x,
+                (ImageWidget.DefaultWidth - x.getWidth) / 2,
+                (ImageWidget.DefaultHeight - x.getHeight) / 2,
+                null)
+          })
+
+          val sources = new File(scriptFilename) :: (tried ++ shown).toList.flatMap(_._2)
+          (subsetImage, sources)
+
+        }
 
-        })
-      }
-    })
-
-    val scriptLoader = new JButton("Edit Script")
-    scriptLoader.addActionListener(new ActionListener() {
-      def actionPerformed(event: ActionEvent): Unit = {
-        val command =  ("notepad.exe " + main.contentDir /
-            ContentStructure.ScriptDir /
-            scriptFile.getFileName())
-        command.!
       }
-    })
 
-    val buttons = List(viewer, mapLoader, scriptLoader)
+    }
+
+  }
+
 
-    new ImageWidget(scriptFile.getTitle, subsetImage, buttons)
+  // render a map, returning the image if the map and its tiles could be
+  // loaded, along with the files it depends on. The tileset named by the map
+  // is a dependency even if it is missing, so that adding it later
+  // invalidates a thumbnail rendered without it.
+  private def mapImage(mapName: String): (Option[BufferedImage], List[File]) = {
+
+    val mapFilename = main.contentDir / ContentStructure.MapDir / mapName + ".map"
+
+    val map = Result.fromFilename(mapFilename).map(new Map(_))
+    val tilesFilename = map.map(x => main.contentDir / ContentStructure.TileDir / x.tileFileName + ".til")
+
+    val image = for {
+      map <- map
+      tilesFilename <- tilesFilename
+      tilesFile <- Result.fromFilename(tilesFilename)
+      tilesLoader = new LazyTilesetLoader(tilesFile.getPath, TileOptions.getOrQuit("Tiles"))
+    } yield {
+      val (packed, palette) = tilesLoader.loadShared()
+      map.image(packed, palette)
+    }
+
+    val sources = tilesFilename match {
+      case Pass(x) => List(new File(mapFilename), new File(x))
+      case Fail(x) => List(new File(mapFilename))
+    }
+
+    image match {
+      case Pass(x) => (Some(x), sources)
+      case Fail(x) => (None, sources)
+    }
 
   }
 
@@ -3,52 +3,66 @@
 package bdzimmer.pixeleditor.view
 
 import java.awt.image.BufferedImage                   // scalastyle:ignore illegal.imports
-import java.awt.event.{ActionEvent, ActionListener}   // scalastyle:ignore illegal.imports
 import java.io.File
 import java.util.ArrayList
-import javax.swing.JButton
 
 import bdzimmer.util.StringUtils._
 
 import bdzimmer.pixeleditor.model.{IndexedGraphics, TileAttributes, TileOptions}
-import bdzimmer.pixeleditor.controller.OldTilesetLoader
+import bdzimmer.pixeleditor.controller.{LazyTilesetLoader, ThumbnailCache}
 
 
 
-class SpriteLoadWindow(main: Main) extends LoadWidgetWindow(main, main.contentDir, "Load Sprites") {
+class SpriteLoadWindow(main: Main) extends LoadWidgetWindow(
+    main, main.contentDir, "Load Sprites", Array("Edit")) {
 
-  def populateObjects(inputDir: String): ArrayList[ImageWidget] = {
+  def populateObjects(inputDir: String): java.util.List[LoadWidgetWindow.WidgetSource] = {
 
     val spriteItems = main.metadata.filter(_.assetType.equals("Spritesheet"))
-    val widgets = spriteItems.map(x => {
+    val sources = spriteItems.map(x => {
       println(inputDir / x.filename)
-      spritesWidget(inputDir / x.filename, x.name, x.info)
+      spritesSource(inputDir, x.filename, x.name, x.info)
     })
 
-    val widgetsArrayList = new java.util.ArrayList[ImageWidget]
-    widgets.map(widgetsArrayList.add(_))
-    widgetsArrayList
+    val sourcesArrayList = new ArrayList[LoadWidgetWindow.WidgetSource]
+    sources.map(sourcesArrayList.add(_))
+    sourcesArrayList
   }
 
 
-  private def spritesWidget(spritesFilename: String, title: String, tiletype: String): ImageWidget = {
+  private def spritesSource(
+      inputDir: String, filename: String,
+      spritesTitle: String, tiletype: String): LoadWidgetWindow.WidgetSource = {
 
-    val tilesFile = new File(spritesFilename)
-    val tileAttrs = TileOptions.types.get(tiletype).getOrElse(TileOptions.Default)
-    val tilesImage = new OldTilesetLoader(spritesFilename, tileAttrs).load().image(0)
+    val spritesFilename = inputDir / filename
 
-    val subsetImage = new BufferedImage(
-        ImageWidget.DefaultWidth, ImageWidget.DefaultHeight, BufferedImage.TYPE_INT_RGB)
-    subsetImage.getGraphics.drawImage(tilesImage, 0, 0, null)
+    new LoadWidgetWindow.WidgetSource() {
 
-    val loader = new JButton("Edit")
-    loader.addActionListener(new ActionListener() {
-      def actionPerformed(event: ActionEvent): Unit = {
+      def title(): String = spritesTitle
+
+      def action(button: Int): Unit = {
         main.createSpriteWindow(spritesFilename, tiletype)
       }
-    })
 
-    new ImageWidget(title, subsetImage, List(loader))
+      def image(): BufferedImage = {
+
+        val tileAttrs = TileOptions.types.get(tiletype).getOrElse(TileOptions.Default)
+
+        thumbnails.get(filename, ThumbnailCache.attributesKey(tileAttrs)) {
+
+          val tilesImage = new LazyTilesetLoader(spritesFilename, tileAttrs).load().image(0)
+
+          val subsetImage = new BufferedImage(
+              ImageWidget.DefaultWidth, ImageWidget.DefaultHeight, BufferedImage.TYPE_INT_RGB)
+          subsetImage.getGraphics.drawImage(tilesImage, 0, 0, null)
+
+          (subsetImage, List(new File(spritesFilename)))
+
+        }
+
+      }
+
+    }
 
   }
 
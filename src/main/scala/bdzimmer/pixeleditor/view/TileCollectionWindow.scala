@@ -14,8 +14,8 @@ import scala.collection.mutable.Buffer
 
 import bdzimmer.pixeleditor.model.TileOptions
 import bdzimmer.pixeleditor.model.TileCollectionModel._
-import bdzimmer.pixeleditor.model.{Color, TileContainer, TileCollectionModel}
-import bdzimmer.pixeleditor.controller.{IO, PalUtil, TileUtil}
+import bdzimmer.pixeleditor.model.{Color, SharedPalette, TileContainer, TileCollectionModel}
+import bdzimmer.pixeleditor.controller.{CollectionWriter, IO, PalUtil, TileUtil}
 
 import bdzimmer.util.StringUtils._
 import bdzimmer.util.PropertiesWrapper
@@ -30,7 +30,7 @@ class TileCollectionWindow(
   setTitle(name + " - Tile Collection")
 
   val tileContainer = new TileContainer
-  val globalPalette = TileUtil.colorArray(tileCollection.settings.paletteSize)
+  val globalPalette = new SharedPalette(TileUtil.colorArray(tileCollection.settings.paletteSize))
 
   var globalPaletteWindow: PaletteWindow = null
   var paletteChunksWindow: PaletteChunksWindow = null
@@ -39,6 +39,9 @@ class TileCollectionWindow(
   var vMapsWindow: VMapsWindow = null
   var zoomWindow: ZoomedTileWindow = null
 
+  // saves only what has changed since the last save to the same file
+  var collectionWriter: CollectionWriter = null
+
   /// load window locations and initialize
 
   val wlocsFilename = "windowlocations.properties"
@@ -98,7 +101,7 @@ class TileCollectionWindow(
     saveWindowLocations()
 
     val file = new File(filename)
-    IO.readCollection(file)
+    tileCollection = IO.readCollection(file)
     name = file.getName
 
     setTitle(name + " - Tile Collection")
@@ -107,14 +110,22 @@ class TileCollectionWindow(
   }
 
 
-  def writeCollection(filename: String): Unit = {
+  def writeCollection(filename: String, text: Boolean = false): Unit = {
 
     saveWindowLocations()
 
     val outFile = new File(filename)
     name = outFile.getName
 
-    IO.writeCollection(outFile, tileCollection)
+    if (text) {
+      IO.writeCollection(outFile, tileCollection, text)
+      collectionWriter = null
+    } else {
+      if (collectionWriter == null || !collectionWriter.file.equals(outFile.getAbsoluteFile)) {
+        collectionWriter = new CollectionWriter(outFile.getAbsoluteFile)
+      }
+      collectionWriter.write(tileCollection)
+    }
 
     setTitle(name + " - Tile Collection")
 
@@ -188,8 +199,9 @@ class TileCollectionWindow(
 
 
     for (i <- 0 until tileCollection.settings.paletteSize) {
-      globalPalette(i) = Color(0, 0, 0);
+      globalPalette.getColors()(i) = Color(0, 0, 0);
     }
+    globalPalette.modified()
 
     // globalPalette = (0 until tileCollection.settings.paletteSize).map(_ => Color(0, 0, 0)).toArray
 
@@ -238,7 +250,8 @@ class TileCollectionWindow(
     // if the first VMap has a palConf, apply that to the global palette
     if (tileCollection.vmaps.size > 0 && tileCollection.vmaps(0).value.palConfs.size > 0) {
       val palConf = tileCollection.vmaps(0).value.palConfs(0).value.chunkIdxs.map(i => tileCollection.paletteChunks(i).value)
-      PalUtil.applyPalConf(globalPalette, palConf)
+      PalUtil.applyPalConf(globalPalette.getColors, palConf)
+      globalPalette.modified()
       pixelsWindow.updater.update()
     }
 
@@ -358,6 +371,17 @@ class TileCollectionWindow(
       }
     })
 
+    val jmSaveAsText = new JMenuItem("Save As Text")
+    jmSaveAsText.addActionListener(new ActionListener() {
+      def actionPerformed(ae: ActionEvent) {
+        TileCollectionWindow.fileChooser(workingDirname, save = true).foreach({case (wd, fn) => {
+          writeCollection(wd / fn, text = true)
+          workingDirname = wd
+          filename       = fn
+        }})
+      }
+    })
+
     val jmImport = new JMenuItem("Import")
     jmImport.addActionListener(new ActionListener() {
       def actionPerformed(ae: ActionEvent) {
@@ -389,6 +413,7 @@ class TileCollectionWindow(
     fileMenu.addSeparator()
     fileMenu.add(jmSave)
     fileMenu.add(jmSaveAs)
+    fileMenu.add(jmSaveAsText)
     fileMenu.addSeparator()
     fileMenu.add(jmImport)
     fileMenu.addSeparator()
@@ -3,49 +3,72 @@
 package bdzimmer.pixeleditor.view;
 
 import java.awt.image.BufferedImage                   // scalastyle:ignore illegal.imports
-import java.awt.event.{ActionEvent, ActionListener}   // scalastyle:ignore illegal.imports
 import java.io.File
 import java.util.ArrayList
-import javax.swing.JButton
 
 import bdzimmer.util.StringUtils._
 
 import bdzimmer.pixeleditor.model.{IndexedGraphics, TileAttributes, TileOptions}
-import bdzimmer.pixeleditor.controller.OldTilesetLoader
+import bdzimmer.pixeleditor.controller.{LazyTilesetLoader, ThumbnailCache}
 
 
 
-class TilesLoadWindow(main: Main) extends LoadWidgetWindow(main, main.contentDir, "Load Map Tiles") {
+class TilesLoadWindow(main: Main) extends LoadWidgetWindow(
+    main, main.contentDir, "Load Map Tiles", Array("Edit"),
+    TilesLoadWindow.imageWidth(TileOptions.getOrQuit("Tiles")),
+    TilesLoadWindow.imageHeight(TileOptions.getOrQuit("Tiles"))) {
 
-  def populateObjects(inputDir: String): ArrayList[ImageWidget] = {
+  def populateObjects(inputDir: String): java.util.List[LoadWidgetWindow.WidgetSource] = {
 
    val tilesetItems = main.metadata.filter(_.assetType.equals("Tileset"))
-    val widgets = tilesetItems.map(x => {
+    val sources = tilesetItems.map(x => {
       println(inputDir / x.filename)
-      tilesWidget(inputDir / x.filename, x.name)
+      tilesSource(inputDir, x.filename, x.name)
     })
 
-    val widgetsArrayList = new java.util.ArrayList[ImageWidget]
-    widgets.foreach(widgetsArrayList.add(_))
-    widgetsArrayList
+    val sourcesArrayList = new ArrayList[LoadWidgetWindow.WidgetSource]
+    sources.foreach(sourcesArrayList.add(_))
+    sourcesArrayList
   }
 
 
-  private def tilesWidget(tilesFilename: String, title: String): ImageWidget = {
+  private def tilesSource(
+      inputDir: String, filename: String, tilesTitle: String): LoadWidgetWindow.WidgetSource = {
 
-    val tilesFile = new File(tilesFilename)
+    val tilesFilename = inputDir / filename
     val tileAttrs = TileOptions.getOrQuit("Tiles")
-    val tilesImage = new OldTilesetLoader(tilesFilename, tileAttrs).load().image(0)
 
-    val loader = new JButton("Edit")
-    loader.addActionListener(new ActionListener() {
-      def actionPerformed(event: ActionEvent): Unit = {
+    new LoadWidgetWindow.WidgetSource() {
+
+      def title(): String = tilesTitle
+
+      def action(button: Int): Unit = {
         main.createLinkedTileAndMapWindows(tilesFilename, "")
       }
-    })
 
-    new ImageWidget(title, tilesImage, List(loader))
+      def image(): BufferedImage = {
+        thumbnails.get(filename, ThumbnailCache.attributesKey(tileAttrs)) {
+          val image = new LazyTilesetLoader(tilesFilename, tileAttrs).load().image(0)
+          (image, List(new File(tilesFilename)))
+        }
+      }
+
+    }
+
+  }
+
+}
+
+
+
+object TilesLoadWindow {
+
+  // tileset images are shown at full size
+
+  def imageWidth(attrs: TileAttributes): Int = attrs.tilesPerRow * attrs.width
 
+  def imageHeight(attrs: TileAttributes): Int = {
+    math.ceil(attrs.count.toFloat / attrs.tilesPerRow).toInt * attrs.height
   }
 
 }
@@ -20,7 +20,7 @@ import bdzimmer.pixeleditor.model.TileCollectionModel._
 import bdzimmer.pixeleditor.controller.TileUtil
 import bdzimmer.pixeleditor.model.{Color, Tile, Tileset, TileContainer, Map}
 import bdzimmer.pixeleditor.controller.PalUtil
-import bdzimmer.pixeleditor.model.IndexedGraphics
+import bdzimmer.pixeleditor.model.{IndexedGraphics, SharedPalette, TileCache}
 
 
 class VMapWindow(
@@ -29,7 +29,7 @@ class VMapWindow(
     pixels: Pixels,
     pixelsUpdater: Updater,
     paletteChunks: Buffer[Named[Array[Color]]],
-    globalPalette: Array[Color],
+    globalPalette: SharedPalette,
     globalPaletteUpdater: Updater,
     tileContainer: TileContainer,
     zoomWindow: ZoomedTileWindow,
@@ -151,7 +151,12 @@ class VMapWindow(
         bitmap,
         new ArrayContainer(pixels.defaultPalOffsets, pixelsIdx),
         settings.colorsPerTile)
-    zoomWindow.setUpdater(updater)
+    zoomWindow.setUpdater(new Updater() {
+      def update(): Unit = {
+        pixels.tiles(pixelsIdx).modified()
+        updater.update()
+      }
+    })
 
     zoomWindow.toFront()
     zoomWindow.setVisible(true)
@@ -161,7 +166,8 @@ class VMapWindow(
 
   def applyPalConf(): Unit = {
     val palConf = vMap.palConfs(selectedPalConfIdx).value.chunkIdxs.map(i => paletteChunks(i).value)
-    PalUtil.applyPalConf(globalPalette, palConf)
+    PalUtil.applyPalConf(globalPalette.getColors, palConf)
+    globalPalette.modified()
     globalPaletteUpdater.update()
     updater.update()
     pixelsUpdater.update()
@@ -278,7 +284,7 @@ class VMapWindow(
         animationWindow.foreach(_.dispose())
         animationWindow = Some(new AnimationWindow(
             updater.tiles,
-            globalPalette,
+            globalPalette.getColors,
             vMapEntryIdx))
         animationWindow.foreach(_.setLocationRelativeTo(VMapWindow.this))
       }
@@ -341,7 +347,8 @@ class VMapWindow(
     }
 
     def draw(): Unit = {
-      val tempTiles = image.draw(drawGrid, drawTileNumbers)
+      image.draw(drawGrid, drawTileNumbers)
+      val tempTiles = image.renderTiles()
       for (idx <- 0 until tempTiles.length) {
          tiles(idx) = tempTiles(idx)
       }
@@ -362,7 +369,7 @@ class VMapWindow(
 class TilesetImage(
     val entries: Array[VMapEntry],
     tiles: Array[Tile],
-    globalPalette: Array[Color],
+    globalPalette: SharedPalette,
     scale: Int,
     settings: Settings) {
 
@@ -376,27 +383,31 @@ class TilesetImage(
       settings.bitsPerChannel,
       rows * settings.tileHeight,
       settings.viewTileCols * settings.tileWidth,
-      scale)
+      scale, false, false)
 
   indexedGraphics.setGridDimensions(settings.tileHeight, settings.tileWidth)
 
+  // flipped and offset tiles are rendered once and reused between draws
+  val tileCache = new TileCache(
+      tiles, globalPalette, settings.bitsPerChannel, scale, IndexedGraphics.NO_TRANSPARENCY)
+
   draw(false, false)
 
-  def draw(drawGrid: Boolean, drawTileNumbers: Boolean): Array[Tile] = {
+  def draw(drawGrid: Boolean, drawTileNumbers: Boolean): Unit = {
 
     indexedGraphics.updateClut()
 
     for (i <- 0 until entries.length) {
-      drawEntry(i)
+      val x = entries(i)
+      indexedGraphics.blitPacked(
+          tileCache.get(x.pixelsIdx, x.palOffset, x.flipX, x.flipY),
+          (i % settings.viewTileCols) * settings.tileWidth,
+          (i / settings.viewTileCols) * settings.tileHeight,
+          settings.tileWidth,
+          settings.tileHeight,
+          false)
     }
 
-    TileUtil.drawTileset(
-        indexedGraphics,
-        renderedTiles,
-        settings.tileWidth,
-        settings.tileHeight,
-        settings.viewTileCols)
-
     if (drawGrid) {
       TileUtil.drawGrid(
           indexedGraphics.getImage,
@@ -412,6 +423,14 @@ class TilesetImage(
           settings.tileHeight * scale)
     }
 
+  }
+
+
+  // render flipped and offset tiles for use by other views
+  def renderTiles(): Array[Tile] = {
+    for (i <- 0 until entries.length) {
+      drawEntry(i)
+    }
     renderedTiles
   }
 
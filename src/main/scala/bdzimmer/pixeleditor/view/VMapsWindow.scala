@@ -7,7 +7,7 @@ import scala.collection.mutable.Buffer
 import javax.swing.{JTextField, JComboBox, JOptionPane}
 
 import bdzimmer.pixeleditor.model.TileCollectionModel._
-import bdzimmer.pixeleditor.model.{Color, TileProperties, TileContainer}
+import bdzimmer.pixeleditor.model.{Color, SharedPalette, TileProperties, TileContainer}
 import bdzimmer.pixeleditor.controller.TileUtil
 
 
@@ -18,7 +18,7 @@ class VMapsWindow(
     pixels: Pixels,
     pixelsUpdater: Updater,
     paletteChunks: Buffer[Named[Array[Color]]],
-    globalPalette: Array[Color],
+    globalPalette: SharedPalette,
     globalPaletteUpdater: Updater,
     tileContainer: TileContainer,
     zoomWindow: ZoomedTileWindow,
@@ -64,7 +64,7 @@ class VMapsWindow(
     val image = new TilesetImage(
         vmap.value.entries,
         pixels.tiles,
-        palette,
+        new SharedPalette(palette),
         1,
         settings)
 
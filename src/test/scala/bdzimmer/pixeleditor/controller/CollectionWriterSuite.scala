@@ -0,0 +1,123 @@
+// Copyright (c) 2016 Ben Zimmer. All rights reserved.
+
+// Tests for CollectionWriter
+
+package bdzimmer.pixeleditor.controller
+
+import org.scalatest.FunSuite
+import java.io.{File, RandomAccessFile}
+import java.nio.file.Files
+
+import bdzimmer.pixeleditor.model.Color
+import bdzimmer.pixeleditor.model.TileCollectionModel._
+
+import bdzimmer.util.StringUtils._
+import bdzimmer.util.TempDirectory
+
+
+class CollectionWriterSuite extends FunSuite with TempDirectory {
+
+  test("patching in place matches a full rewrite") {
+
+    val patchedDir = new File(tempDirname / "collectionwriter_patched")
+    val fullDir = new File(tempDirname / "collectionwriter_full")
+
+    val tc = emptyCollection(IO.DefaultSettings, 256)
+    val writer = new CollectionWriter(patchedDir)
+    writer.write(tc)
+
+    // change tiles, a default palette offset, a vmap entry, and a palette chunk
+    setPixel(tc, 0, 0, 0, 3)
+    setPixel(tc, 100, 5, 7, 9)
+    setPixel(tc, 255, 15, 15, 15)
+    tc.pixels.defaultPalOffsets(17) = 32
+    tc.vmaps(0).value.entries(10) = VMapEntry(100, 16, true, false, tc.vmaps(0).value.entries(10).attribs)
+    tc.vmaps(0).value.entries(255) = VMapEntry(7, 0, false, true, tc.vmaps(0).value.entries(255).attribs)
+    tc.paletteChunks(0).value(3) = Color(1, 2, 3)
+    writer.write(tc)
+
+    IO.writeCollection(fullDir, tc)
+    assertSameFiles(patchedDir, fullDir)
+
+    // a tile that no longer fits 4 bits widens the whole file
+    setPixel(tc, 1, 1, 1, 200)
+    writer.write(tc)
+
+    IO.writeCollection(fullDir, tc)
+    assertSameFiles(patchedDir, fullDir)
+
+    // palette confs change the layout of the vmaps file
+    tc.vmaps(0).value.palConfs(0).value.chunkIdxs += 0
+    tc.vmaps(0).value.entries(3) = VMapEntry(9, 0, true, true, tc.vmaps(0).value.entries(3).attribs)
+    writer.write(tc)
+
+    IO.writeCollection(fullDir, tc)
+    assertSameFiles(patchedDir, fullDir)
+
+  }
+
+
+  test("files changed elsewhere are rewritten") {
+
+    val outDir = new File(tempDirname / "collectionwriter_changed")
+
+    val tc = emptyCollection(IO.DefaultSettings, 256)
+    val writer = new CollectionWriter(outDir)
+    writer.write(tc)
+
+    val pixelsFile = writer.tcf.pixelsBinFile
+    val expected = IO.pixelsBinaryBytes(tc.pixels, tc.settings)
+
+    // overwrite part of the pixels file
+    overwrite(pixelsFile, pixelsFile.length / 2)
+    pixelsFile.setLastModified(pixelsFile.lastModified - 10000)
+    writer.write(tc)
+    assert(Files.readAllBytes(pixelsFile.toPath).sameElements(expected))
+
+    // overwrite the header, keeping the length and modification time
+    val modified = pixelsFile.lastModified
+    overwrite(pixelsFile, 0)
+    pixelsFile.setLastModified(modified)
+    writer.write(tc)
+    assert(Files.readAllBytes(pixelsFile.toPath).sameElements(expected))
+
+    // replace the file with one of a different length
+    Files.write(pixelsFile.toPath, Array[Byte](1, 2, 3))
+    pixelsFile.setLastModified(modified)
+    writer.write(tc)
+    assert(Files.readAllBytes(pixelsFile.toPath).sameElements(expected))
+
+  }
+
+
+  // change a pixel the way the editors do
+  def setPixel(tc: TileCollection, tile: Int, row: Int, col: Int, value: Int): Unit = {
+    tc.pixels.tiles(tile).bitmap(row)(col) = value
+    tc.pixels.tiles(tile).modified()
+  }
+
+
+  def overwrite(file: File, position: Long): Unit = {
+    val raf = new RandomAccessFile(file, "rw")
+    try {
+      raf.seek(position)
+      raf.write(Array.fill[Byte](16)(0x55))
+    } finally {
+      raf.close()
+    }
+  }
+
+
+  def assertSameFiles(x: File, y: File): Unit = {
+    val xFiles = IO.TileCollectionFiles(x.getAbsolutePath)
+    val yFiles = IO.TileCollectionFiles(y.getAbsolutePath)
+    List(
+        (xFiles.settingsFile, yFiles.settingsFile),
+        (xFiles.pixelsBinFile, yFiles.pixelsBinFile),
+        (xFiles.vMapsBinFile, yFiles.vMapsBinFile),
+        (xFiles.paletteChunksFile, yFiles.paletteChunksFile)).foreach({case (a, b) => {
+      assert(Files.readAllBytes(a.toPath).sameElements(Files.readAllBytes(b.toPath)), a.getName)
+    }})
+  }
+
+}
@@ -0,0 +1,232 @@
+// Copyright (c) 2016 Ben Zimmer. All rights reserved.
+
+// Tests for IO
+
+package bdzimmer.pixeleditor.controller
+
+import org.scalatest.FunSuite
+import java.io.{File, BufferedReader, StringReader}
+import java.nio.file.Files
+
+import scala.collection.mutable.Buffer
+
+import bdzimmer.pixeleditor.model.TileCollectionModel._
+import bdzimmer.pixeleditor.model.{Color, Tile, TileProperties}
+
+import bdzimmer.util.StringUtils._
+import bdzimmer.util.TempDirectory
+
+
+class IOSuite extends FunSuite with TempDirectory {
+
+  // odd tile dimensions so that 4 bit tiles end on a half byte
+  val settings = IO.DefaultSettings.copy(tileWidth = 3, tileHeight = 5, vMapSize = 6)
+
+
+  test("scan key value pairs") {
+
+    val text = List(
+        "count: 3",
+        "path: C:\\pixel: data  ",
+        "url:http://example  ",
+        "empty: ",
+        "  padded:\t7",
+        "",
+        "next: block").mkString("\n")
+
+    val br = new BufferedReader(new StringReader(text))
+    val fields = Buffer[(String, String)]()
+    IO.scanMap(br)((key, value) => fields += ((key, value)))
+
+    assert(fields == Buffer(
+        ("count", "3"),
+        ("path", "C:\\pixel: data"),
+        ("  padded", "7")))
+
+    // the next block is left for the next scan
+    assert(IO.readMap(br) == scala.collection.immutable.Map("next" -> "block"))
+    assert(IO.readMap(br).isEmpty)
+
+  }
+
+
+  test("parse ints without throwing") {
+
+    assert(IO.parseInt("42", 0) == 42)
+    assert(IO.parseInt("-17 ", 0) == -17)
+    assert(IO.parseInt("2147483647", 0) == Int.MaxValue)
+    assert(IO.parseInt("-2147483648", 0) == Int.MinValue)
+
+    assert(IO.parseInt("2147483648", 5) == 5)
+    assert(IO.parseInt("99999999999", 5) == 5)
+    assert(IO.parseInt("", 5) == 5)
+    assert(IO.parseInt("-", 5) == 5)
+    assert(IO.parseInt("1x", 5) == 5)
+    assert(IO.parseInt(" 1", 5) == 5)
+    assert(IO.parseInt(null, 5) == 5)
+
+  }
+
+
+  test("binary pixels pack at the narrowest width that fits") {
+
+    // 16 colors per tile with small values packs at 4 bits
+    assertPixelsRoundTrip(pixels(15, 0), settings, 4)
+
+    // values above 15 widen to 8 bits
+    assertPixelsRoundTrip(pixels(16, 3), settings, 8)
+    assertPixelsRoundTrip(pixels(255, 0), settings, 8)
+
+    // as does a palette with more than 16 colors per tile
+    assertPixelsRoundTrip(pixels(15, 0), settings.copy(colorsPerTile = 256), 8)
+
+    // negative values and values above 255 are kept as ints
+    assertPixelsRoundTrip(pixels(256, 0), settings, 32)
+    assertPixelsRoundTrip(pixels(-1, 1 << 20), settings, 32)
+
+  }
+
+
+  test("text vmaps keep the first entry") {
+
+    // Before the entry reader skipped the count block written ahead of the
+    // entries, that block was read as the first entry, shifting every entry
+    // of a text vmap down by one and dropping the last.
+
+    val vMapsFile = new File(tempDirname / "iosuite_vmaps")
+    val vMaps = testVMaps
+
+    IO.writeVMaps(vMapsFile, vMaps, settings)
+    val loaded = IO.readVMaps(vMapsFile, settings)
+
+    assert(loaded(0).value.entries(0) == vMaps(0).value.entries(0))
+    assertVMapsEqual(loaded, vMaps)
+
+  }
+
+
+  test("binary vmaps round trip") {
+
+    val vMapsFile = new File(tempDirname / "iosuite_vmaps.bin")
+    val vMaps = testVMaps
+
+    IO.writeVMapsBinary(vMapsFile, vMaps)
+    val bytes = Files.readAllBytes(vMapsFile.toPath)
+    assert(bytes.take(IO.VMapsMagic.length).sameElements(IO.VMapsMagic))
+
+    assertVMapsEqual(IO.readVMapsBinary(vMapsFile), vMaps)
+
+  }
+
+
+  test("binary and text vmaps load the same") {
+
+    val textFile = new File(tempDirname / "iosuite_same_vmaps")
+    val binFile = new File(tempDirname / "iosuite_same_vmaps.bin")
+    val vMaps = testVMaps
+
+    IO.writeVMaps(textFile, vMaps, settings)
+    IO.writeVMapsBinary(binFile, vMaps)
+
+    assertVMapsEqual(IO.readVMapsBinary(binFile), IO.readVMaps(textFile, settings))
+
+  }
+
+
+  test("text to binary to text collection round trip") {
+
+    val textDir = new File(tempDirname / "iosuite_text")
+    val binDir = new File(tempDirname / "iosuite_bin")
+    val textAgainDir = new File(tempDirname / "iosuite_text_again")
+
+    val chunks: Buffer[Named[Array[Color]]] = Buffer(
+        Array(Color(0, 0, 0), Color(31, 15, 7)) named "Chunk 0",
+        Array(Color(1, 2, 3)) named "Chunk 1")
+    val tc = TileCollection(settings, pixels(255, 0), testVMaps, chunks)
+
+    IO.writeCollection(textDir, tc, text = true)
+    val textFiles = IO.TileCollectionFiles(textDir.getAbsolutePath)
+    assert(textFiles.pixelsFile.exists && !textFiles.pixelsBinFile.exists)
+    assert(textFiles.vMapsFile.exists && !textFiles.vMapsBinFile.exists)
+
+    IO.writeCollection(binDir, IO.readCollection(textDir))
+    val binFiles = IO.TileCollectionFiles(binDir.getAbsolutePath)
+    assert(!binFiles.pixelsFile.exists && binFiles.pixelsBinFile.exists)
+    assert(!binFiles.vMapsFile.exists && binFiles.vMapsBinFile.exists)
+
+    // a binary write leaves text files in place
+    IO.writeCollection(textDir, IO.readCollection(textDir))
+    assert(textFiles.pixelsFile.exists && textFiles.pixelsBinFile.exists)
+    assert(textFiles.vMapsFile.exists && textFiles.vMapsBinFile.exists)
+
+    IO.writeCollection(textAgainDir, IO.readCollection(binDir), text = true)
+    val textAgainFiles = IO.TileCollectionFiles(textAgainDir.getAbsolutePath)
+
+    def sameBytes(x: File, y: File): Boolean = {
+      Files.readAllBytes(x.toPath).sameElements(Files.readAllBytes(y.toPath))
+    }
+
+    assert(sameBytes(textFiles.settingsFile, textAgainFiles.settingsFile))
+    assert(sameBytes(textFiles.pixelsFile, textAgainFiles.pixelsFile))
+    assert(sameBytes(textFiles.vMapsFile, textAgainFiles.vMapsFile))
+    assert(sameBytes(textFiles.paletteChunksFile, textAgainFiles.paletteChunksFile))
+
+  }
+
+
+  // tiles of small values above low with every seventh pixel set to high
+  def pixels(high: Int, low: Int): Pixels = {
+    val tileSize = settings.tileWidth * settings.tileHeight
+    val tiles = (0 until 3).map(t => {
+      val bitmap = Array.tabulate(settings.tileHeight, settings.tileWidth)((row, col) => {
+        val idx = t * tileSize + row * settings.tileWidth + col
+        if (idx % 7 == 0) high else low + idx % 4
+      })
+      new Tile(bitmap)
+    }).toArray
+    Pixels(tiles, Array(Integer.valueOf(0), Integer.valueOf(16), Integer.valueOf(-32)))
+  }
+
+
+  def assertPixelsRoundTrip(pixels: Pixels, settings: Settings, bitsPerPixel: Int): Unit = {
+
+    val pixelsFile = new File(tempDirname / "iosuite_pixels.bin")
+    IO.writePixelsBinary(pixelsFile, pixels, settings)
+
+    val bytes = Files.readAllBytes(pixelsFile.toPath)
+    assert(bytes.take(IO.PixelsMagic.length).sameElements(IO.PixelsMagic))
+    assert(bytes(IO.PixelsMagic.length + 1) == bitsPerPixel)
+
+    val loaded = IO.readPixelsBinary(pixelsFile)
+    assert(loaded.tiles.length == pixels.tiles.length)
+    loaded.tiles.zip(pixels.tiles).foreach({case (x, y) => {
+      assert(x.bitmap.map(_.toList).toList == y.bitmap.map(_.toList).toList)
+    }})
+    assert(loaded.defaultPalOffsets.toList == pixels.defaultPalOffsets.toList)
+
+  }
+
+
+  def testVMaps: Buffer[Named[VMap]] = {
+
+    def entries(start: Int): Array[VMapEntry] = (0 until settings.vMapSize).map(i => {
+      VMapEntry(start + i, i * 16, i % 2 == 1, i % 3 == 1, TileProperties(0))
+    }).toArray
+
+    Buffer(
+        VMap(Buffer(PaletteConf(Buffer(0, 1)) named "Day", PaletteConf(Buffer(2)) named "Night"), entries(1)) named "First",
+        VMap(Buffer(PaletteConf(Buffer(3)) named "Only"), entries(100)) named "Second")
+
+  }
+
+
+  def assertVMapsEqual(x: Buffer[Named[VMap]], y: Buffer[Named[VMap]]): Unit = {
+    assert(x.length == y.length)
+    x.zip(y).foreach({case (a, b) => {
+      assert(a.name == b.name)
+      assert(a.value.palConfs == b.value.palConfs)
+      assert(a.value.entries.toList == b.value.entries.toList)
+    }})
+  }
+
+}
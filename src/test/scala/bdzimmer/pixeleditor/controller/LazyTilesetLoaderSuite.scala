@@ -0,0 +1,101 @@
+// Copyright (c) 2016 Ben Zimmer. All rights reserved.
+
+// Tests for LazyTilesetLoader
+
+package bdzimmer.pixeleditor.controller
+
+import org.scalatest.FunSuite
+import java.io.File
+import java.nio.file.Files
+
+import bdzimmer.pixeleditor.model.{TileAttributes, TileOptions}
+
+import bdzimmer.util.StringUtils._
+import bdzimmer.util.TempDirectory
+
+
+class LazyTilesetLoaderSuite extends FunSuite with TempDirectory {
+
+  val resourceDir = getClass.getResource("/pixel").getPath
+
+
+  test("load the same tileset as the stream loader") {
+
+    val tileAttrs = TileOptions.types.get("Tiles").get
+    val expected = new OldTilesetLoader(resourceDir / "amex.til", tileAttrs).load()
+    val loader = new LazyTilesetLoader(resourceDir / "amex.til", tileAttrs)
+
+    val tileset = loader.load()
+    assert(tileset.tiles.length == expected.tiles.length)
+    tileset.tiles.zip(expected.tiles).foreach({case (x, y) => {
+      assert(x.bitmap.map(_.toList).toList == y.bitmap.map(_.toList).toList)
+    }})
+    assert(tileset.palettes(0).colors.toList == expected.palettes(0).colors.toList)
+
+    val (packed, palette) = loader.loadShared()
+    for (i <- 0 until expected.tiles.length) {
+      assert(packed.bitmap(i).map(_.toList).toList == expected.tiles(i).bitmap.map(_.toList).toList)
+    }
+    assert(palette.colors.toList == expected.palettes(0).colors.toList)
+
+  }
+
+
+  test("reuse entries until the file changes or is invalidated") {
+
+    val attrs = new TileAttributes(16, 16, 64, 0, 255, false, 16)
+    val filename = tempDirname / "lazyloader_small.til"
+    writeTileset(filename, attrs, 1)
+
+    val first = LazyTilesetLoader.entry(filename, attrs).get
+    assert(LazyTilesetLoader.entry(filename, attrs).get eq first)
+
+    // different attributes decode again
+    val fewer = new TileAttributes(16, 16, 32, 0, 255, false, 16)
+    assert(LazyTilesetLoader.entry(filename, fewer).get ne first)
+    val second = LazyTilesetLoader.entry(filename, attrs).get
+    assert(second ne first)
+
+    // a change in modification time decodes again
+    new File(filename).setLastModified(new File(filename).lastModified - 10000)
+    val third = LazyTilesetLoader.entry(filename, attrs).get
+    assert(third ne second)
+    assert(LazyTilesetLoader.entry(filename, attrs).get eq third)
+
+    LazyTilesetLoader.invalidate(filename)
+    assert(LazyTilesetLoader.entry(filename, attrs).get ne third)
+
+  }
+
+
+  test("evict the least recently used files") {
+
+    // each file is a bit over a third of the cache
+    val count = LazyTilesetLoader.MaxCachedBytes / 3 / 256 + 1
+    val attrs = new TileAttributes(16, 16, count, 0, 255, false, 16)
+    val filenames = (0 until 3).map(i => tempDirname / ("lazyloader_large_" + i + ".til"))
+    filenames.zipWithIndex.foreach({case (filename, i) => writeTileset(filename, attrs, i)})
+
+    val a = LazyTilesetLoader.entry(filenames(0), attrs).get
+    val b = LazyTilesetLoader.entry(filenames(1), attrs).get
+
+    // use the first again, so that the second is least recently used
+    assert(LazyTilesetLoader.entry(filenames(0), attrs).get eq a)
+
+    LazyTilesetLoader.entry(filenames(2), attrs).get
+    assert(LazyTilesetLoader.entry(filenames(0), attrs).get eq a)
+    assert(LazyTilesetLoader.entry(filenames(1), attrs).get ne b)
+
+    filenames.foreach(x => new File(x).delete())
+
+  }
+
+
+  // write a tileset in the old format filled with a value
+  def writeTileset(filename: String, attrs: TileAttributes, value: Int): Unit = {
+    val tileBytes = attrs.count * attrs.width * attrs.height
+    val paletteBytes = (attrs.palEnd - attrs.palStart + 1) * 6
+    Files.write(new File(filename).toPath, Array.fill[Byte](tileBytes + paletteBytes)(value.toByte))
+  }
+
+}
@@ -0,0 +1,77 @@
+// Copyright (c) 2016 Ben Zimmer. All rights reserved.
+
+// Tests for ThumbnailCache
+
+package bdzimmer.pixeleditor.controller
+
+import org.scalatest.FunSuite
+import java.awt.image.BufferedImage
+import java.io.File
+import java.nio.file.Files
+
+import bdzimmer.util.StringUtils._
+import bdzimmer.util.TempDirectory
+
+
+class ThumbnailCacheSuite extends FunSuite with TempDirectory {
+
+  test("render again only when sources or key change") {
+
+    val cacheDir = new File(tempDirname / "thumbnails_test")
+    val source = new File(tempDirname / "thumbnails_source.dat")
+    val missing = new File(tempDirname / "thumbnails_missing.dat")
+    Files.write(source.toPath, Array[Byte](1, 2, 3))
+    missing.delete()
+    Option(cacheDir.listFiles).foreach(_.foreach(_.delete()))
+
+    val cache = new ThumbnailCache(cacheDir)
+    var renders = 0
+
+    def get(key: String): BufferedImage = cache.get("dir/source", key) {
+      renders += 1
+      val image = new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB)
+      image.setRGB(1, 1, 0x123456)
+      (image, List(source, missing))
+    }
+
+    val image = get("key")
+    assert(renders == 1)
+
+    // unchanged sources are read from the cache
+    val cached = get("key")
+    assert(renders == 1)
+    assert(cached.getWidth == 4 && cached.getHeight == 3)
+    assert((cached.getRGB(1, 1) & 0xFFFFFF) == 0x123456)
+
+    // a new cache over the same directory sees the stored image
+    new ThumbnailCache(cacheDir).get("dir/source", "key") {
+      fail("should have been cached")
+    }
+
+    get("other key")
+    assert(renders == 2)
+
+    // modification time
+    source.setLastModified(source.lastModified - 10000)
+    get("other key")
+    assert(renders == 3)
+
+    // length, with the modification time kept
+    val modified = source.lastModified
+    Files.write(source.toPath, Array[Byte](1, 2, 3, 4))
+    source.setLastModified(modified)
+    get("other key")
+    assert(renders == 4)
+    get("other key")
+    assert(renders == 4)
+
+    // a source that was missing when rendered appears
+    Files.write(missing.toPath, Array[Byte](5))
+    get("other key")
+    assert(renders == 5)
+
+    missing.delete()
+
+  }
+
+}
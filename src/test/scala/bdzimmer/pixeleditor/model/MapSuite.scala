@@ -0,0 +1,172 @@
+// Copyright (c) 2016 Ben Zimmer. All rights reserved.
+
+// Tests for Map
+
+package bdzimmer.pixeleditor.model
+
+import org.scalatest.FunSuite
+import java.awt.image.BufferedImage
+import java.io.File
+import java.nio.file.Files
+
+import scala.util.Random
+
+import bdzimmer.pixeleditor.controller.OldTilesetLoader
+
+import bdzimmer.util.TempDirectory
+import bdzimmer.util.StringUtils._
+
+
+class MapSuite extends FunSuite with TempDirectory {
+
+  val resourceDir = getClass.getResource("/pixel").getPath
+
+  test("load and save using Map") {
+
+    val inputFile = new File(resourceDir / "albion.map")
+    val outputFile = new File(tempDirname / "albion_new.map")
+
+    val map = new Map(inputFile)
+    assert(map.tileFileName.equals("amex"))
+    assert(map.mud == 27 && map.mlr == 19)
+    assert(!map.hasParallax)
+
+    // save a copy, which should be identical
+    map.save(outputFile)
+    assert(Files.readAllBytes(outputFile.toPath).sameElements(Files.readAllBytes(inputFile.toPath)))
+
+    // load the copy
+    val newMap = new Map(outputFile)
+    for (i <- 0 to map.mud; j <- 0 to map.mlr) {
+      assert(newMap.map.get(i, j) == map.map.get(i, j))
+      assert(newMap.overMap.get(i, j) == map.overMap.get(i, j))
+    }
+
+  }
+
+
+
+  test("save and load a map larger than 256 x 256") {
+
+    val outputFile = new File(tempDirname / "large.map")
+
+    val map = new Map()
+    map.tileFileName = "amex"
+    map.map.set(0, 0, 1)
+    map.map.set(300, 2, 300)
+    map.map.set(17, 511, 65535)
+    map.overMap.set(400, 260, 258)
+
+    map.save(outputFile)
+
+    val newMap = new Map(outputFile)
+    assert(newMap.mud == 400 && newMap.mlr == 511)
+    for (i <- 0 to map.mud; j <- 0 to map.mlr) {
+      assert(newMap.map.get(i, j) == map.map.get(i, j))
+      assert(newMap.overMap.get(i, j) == map.overMap.get(i, j))
+    }
+
+  }
+
+
+  test("render albion.map the same as drawing cell by cell") {
+
+    val map = new Map(new File(resourceDir / "albion.map"))
+    val tileAttrs = TileOptions.types.get("Tiles").get
+    val tileset = new OldTilesetLoader(resourceDir / "amex.til", tileAttrs).load()
+    val palette = tileset.palettes(0)
+
+    def assertRendered(tiles: Array[Tile]): Unit = {
+      val expected = pixels(imageByCell(map, tiles, palette))
+      assert(pixels(map.image(tiles, palette)).sameElements(expected))
+      if (PackedTiles.fits(tiles)) {
+        val packed = PackedTiles.fromTiles(tiles)
+        assert(pixels(map.image(packed, palette, false)).sameElements(expected))
+        assert(pixels(map.image(packed, palette, true)).sameElements(expected))
+      }
+    }
+
+    assertRendered(tileset.tiles)
+
+    // overlays everywhere, including on tiles that are partly transparent
+    val random = new Random(1)
+    for (i <- 0 to map.mud; j <- 0 to map.mlr) {
+      map.overMap.set(i, j, random.nextInt(tileset.tiles.length))
+    }
+    assertRendered(tileset.tiles)
+
+    // tiles with indices above 255 can't be packed, but are drawn from the bitmaps
+    val wideTile = map.map.get(0, 0)
+    val wideTiles = tileset.tiles.zipWithIndex.map({case (tile, idx) => {
+      if (idx == wideTile) new Tile(tile.bitmap.map(_.map(_ + 256))) else tile
+    }})
+    assert(!PackedTiles.fits(wideTiles))
+    assertRendered(wideTiles)
+
+  }
+
+
+  test("render cells past the end of the tiles as tile 0") {
+
+    val map = new Map(new File(resourceDir / "albion.map"))
+    val tileAttrs = TileOptions.types.get("Tiles").get
+    val tileset = new OldTilesetLoader(resourceDir / "amex.til", tileAttrs).load()
+    val palette = tileset.palettes(0)
+    val packed = PackedTiles.fromTiles(tileset.tiles)
+
+    map.overMap.set(3, 4, 5)
+    val original = pixels(map.image(tileset.tiles, palette))
+
+    map.map.set(0, 0, 0)
+    map.map.set(2, 3, 0)
+    map.overMap.set(3, 4, 0)
+    val cleared = pixels(map.image(tileset.tiles, palette))
+
+    map.map.set(0, 0, tileset.tiles.length)
+    map.map.set(2, 3, 65535)
+    map.overMap.set(3, 4, 300)
+
+    assert(pixels(map.image(tileset.tiles, palette)).sameElements(cleared))
+    assert(pixels(map.image(packed, palette, false)).sameElements(cleared))
+    assert(pixels(map.image(packed, palette, true)).sameElements(cleared))
+    // the cleared cells did change the image
+    assert(!cleared.sameElements(original))
+
+  }
+
+
+  // reference: draw each cell through the raster, as Map.image once did
+  def imageByCell(map: Map, tiles: Array[Tile], palette: Palette): BufferedImage = {
+
+    val height = tiles(0).bitmap.length
+    val width = tiles(0).bitmap(0).length
+
+    val image = Tileset.indexedImage(
+        (map.mlr + 1) * width, (map.mud + 1) * height, palette, Color(50, 0, 50))
+    val wr = image.getRaster
+
+    for (i <- 0 to map.mud; j <- 0 to map.mlr) {
+      for (k <- 0 until height) {
+        wr.setPixels(j * width, i * height + k, width, 1, tiles(map.map.get(i, j)).bitmap(k))
+      }
+      val overTile = map.overMap.get(i, j)
+      if (overTile > 0) {
+        for (k <- 0 until height; l <- 0 until width) {
+          val color = tiles(overTile).bitmap(k)(l)
+          if (color != MapRenderer.TRANSPARENT) {
+            wr.setPixel(j * width + l, i * height + k, Array(color))
+          }
+        }
+      }
+    }
+
+    image
+
+  }
+
+
+  def pixels(image: BufferedImage): Array[Int] = {
+    image.getRaster.getPixels(0, 0, image.getWidth, image.getHeight, null: Array[Int])
+  }
+
+}
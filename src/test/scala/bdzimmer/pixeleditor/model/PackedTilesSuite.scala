@@ -0,0 +1,98 @@
+// Copyright (c) 2016 Ben Zimmer. All rights reserved.
+
+// Tests for PackedTiles
+
+package bdzimmer.pixeleditor.model
+
+import org.scalatest.FunSuite
+
+
+class PackedTilesSuite extends FunSuite {
+
+  val width = 5
+  val height = 3
+
+  // distinct values covering the full byte range
+  def bitmap(tile: Int): Array[Array[Int]] = {
+    Array.tabulate(height, width)((y, x) => (tile * 97 + y * 31 + x * 7) % 256)
+  }
+
+  def bitmapList(b: Array[Array[Int]]): List[List[Int]] = b.map(_.toList).toList
+
+
+  test("store and load bitmaps") {
+
+    val tiles = (0 until 4).map(i => new Tile(bitmap(i))).toArray
+    assert(PackedTiles.fits(tiles))
+
+    val packed = PackedTiles.fromTiles(tiles)
+    assert(packed.getCount == 4 && packed.getWidth == width && packed.getHeight == height)
+
+    for (i <- 0 until 4) {
+      assert(bitmapList(packed.bitmap(i)) == bitmapList(bitmap(i)))
+      for (y <- 0 until height; x <- 0 until width) {
+        assert(packed.get(i, x, y) == bitmap(i)(y)(x))
+      }
+      val row = new Array[Int](width + 2)
+      packed.getRow(i, 1, row, 2)
+      assert(row.drop(2).toList == bitmap(i)(1).toList)
+    }
+
+    packed.set(2, 4, 1, 255)
+    assert(packed.get(2, 4, 1) == 255)
+
+  }
+
+
+  test("wrap existing data at an offset") {
+
+    val source = PackedTiles.fromTiles(Array(new Tile(bitmap(0)), new Tile(bitmap(1))))
+    val data = Array.fill[Byte](7)(-1) ++ source.getData
+
+    val wrapped = new PackedTiles(data, 7, 2, width, height)
+    assert(bitmapList(wrapped.bitmap(1)) == bitmapList(bitmap(1)))
+    assert(wrapped.getOffset(1) == 7 + wrapped.getStride)
+
+  }
+
+
+  test("copy and flip tiles") {
+
+    val packed = PackedTiles.fromTiles(Array(new Tile(bitmap(0)), new Tile(bitmap(1))))
+
+    packed.copy(0, 1)
+    assert(bitmapList(packed.bitmap(1)) == bitmapList(bitmap(0)))
+
+    packed.flipX(1)
+    assert(bitmapList(packed.bitmap(1)) == bitmapList(bitmap(0).map(_.reverse)))
+
+    packed.flipY(1)
+    assert(bitmapList(packed.bitmap(1)) == bitmapList(bitmap(0).reverse.map(_.reverse)))
+
+    // the source tile is untouched
+    assert(bitmapList(packed.bitmap(0)) == bitmapList(bitmap(0)))
+
+  }
+
+
+  test("reject values that do not fit in a byte") {
+
+    val wide = bitmap(0)
+    wide(2)(3) = 256
+    assert(!PackedTiles.fits(Array(new Tile(bitmap(0)), new Tile(wide))))
+
+    val negative = bitmap(0)
+    negative(0)(0) = -1
+    assert(!PackedTiles.fits(Array(new Tile(negative))))
+
+    val packed = new PackedTiles(1, width, height)
+    intercept[IllegalArgumentException] {
+      packed.store(0, wide)
+    }
+    intercept[IllegalArgumentException] {
+      packed.set(0, 0, 0, -1)
+    }
+
+  }
+
+}
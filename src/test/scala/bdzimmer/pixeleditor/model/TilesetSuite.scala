@@ -7,6 +7,7 @@ package bdzimmer.pixeleditor.model
 import org.scalatest.FunSuite
 import java.io.File
 
+import java.awt.image.BufferedImage
 import javax.imageio.ImageIO
 
 import bdzimmer.pixeleditor.controller.OldTilesetLoader
@@ -54,4 +55,45 @@ class TilesetSuite extends FunSuite with TempDirectory {
 
   }
 
+
+  test("imageRGB matches drawing pixel by pixel") {
+
+    val tileAttrs = TileOptions.types.get("Tiles").get
+    val tileset = new OldTilesetLoader(resourceDir / "amex.til", tileAttrs).load()
+
+    // odd layout, so that the last row of tiles is incomplete
+    val tilesWide = 7
+    val tilesHigh = (tileset.tiles.length + tilesWide - 1) / tilesWide
+    val transparent = Color(10, 20, 30)
+
+    for (paletteIndex <- 0 until tileset.palettes.length) {
+
+      val image = tileset.imageRGB(tilesWide, tilesHigh, paletteIndex, transparent)
+
+      // reference: look up and set each pixel, as imageRGB once did
+      val curPal = tileset.palettes(paletteIndex)
+      val fullPal = Array.fill(256)(Color(0, 0, 0))
+      for (x <- curPal.start to curPal.end) {
+        fullPal(x) = curPal.colors(x - curPal.start)
+      }
+      fullPal(255) = transparent
+
+      val expected = new BufferedImage(image.getWidth, image.getHeight, BufferedImage.TYPE_INT_RGB)
+      for (whichTile <- 0 until tileset.tiles.length) {
+        val xoff = (whichTile % tilesWide) * tileset.width
+        val yoff = (whichTile / tilesWide) * tileset.height
+        for (y <- 0 until tileset.height; x <- 0 until tileset.width) {
+          val color = fullPal(tileset.tiles(whichTile).bitmap(y)(x))
+          expected.setRGB(xoff + x, yoff + y, curPal.colorInt(color))
+        }
+      }
+
+      val w = image.getWidth
+      val h = image.getHeight
+      assert(image.getRGB(0, 0, w, h, null, 0, w).sameElements(expected.getRGB(0, 0, w, h, null, 0, w)))
+
+    }
+
+  }
+
 }
@@ -0,0 +1,87 @@
+// Copyright (c) 2016 Ben Zimmer. All rights reserved.
+
+// Tests for World
+
+package bdzimmer.pixeleditor.model
+
+import org.scalatest.FunSuite
+import java.io.File
+import java.nio.file.Files
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.{Buffer, HashSet}
+import scala.util.Random
+
+import bdzimmer.util.StringUtils._
+import bdzimmer.util.TempDirectory
+
+
+class WorldSuite extends FunSuite with TempDirectory {
+
+  test("list scripts in the order of a recursive crawl") {
+
+    val random = new Random(1)
+
+    for (graph <- 0 until 20) {
+
+      // random links, including cycles, self links, and repeated links
+      val count = 1 + random.nextInt(40)
+      val links = (0 until count).map(i => {
+        (0 until random.nextInt(4)).map(_ => random.nextInt(count)).toList
+      })
+
+      val contentDir = writeScripts("world_graph_" + graph, links)
+      assert(scriptNames(new World(contentDir)) == recursiveCrawl(links))
+
+    }
+
+  }
+
+
+  test("list a long chain of scripts") {
+
+    val count = 5000
+    val links = (0 until count).map(i => if (i + 1 < count) List(i + 1) else List())
+
+    val contentDir = writeScripts("world_chain", links)
+    assert(scriptNames(new World(contentDir)) == (0 until count).map(scriptName(_)).toList)
+
+  }
+
+
+  def scriptName(i: Int): String = if (i == 0) "start.spt" else "s" + i + ".spt"
+
+
+  // write a script for each list of links, script 0 being the start
+  def writeScripts(name: String, links: Seq[List[Int]]): String = {
+    val contentDir = tempDirname / name
+    val scriptDir = new File(contentDir / ContentStructure.ScriptDir)
+    scriptDir.mkdirs()
+    Option(scriptDir.listFiles).foreach(_.foreach(_.delete()))
+    links.zipWithIndex.foreach({case (scriptLinks, i) => {
+      val lines = ("'Script " + i) :: scriptLinks.map(x => "scriptfile = " + scriptName(x).stripSuffix(".spt"))
+      Files.write(new File(scriptDir, scriptName(i)).toPath, lines.asJava)
+    }})
+    contentDir
+  }
+
+
+  def scriptNames(world: World): List[String] = world.getScriptFiles.asScala.map(_.getFileName).toList
+
+
+  // reference: the depth-first order that World listed scripts in before
+  // crawling in parallel
+  def recursiveCrawl(links: Seq[List[Int]]): List[String] = {
+    val visited = HashSet[Int]()
+    val order = Buffer[String]()
+    def crawl(i: Int): Unit = {
+      if (visited.add(i)) {
+        order += scriptName(i)
+        links(i).foreach(crawl)
+      }
+    }
+    crawl(0)
+    order.toList
+  }
+
+}